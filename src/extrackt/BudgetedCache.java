@@ -0,0 +1,138 @@
+package extrackt;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least-recently-used cache whose memory is charged to the MemoryBudget.
+ * When the budget is under pressure, the cache is asked to give memory back
+ * and drops its oldest entries. Subclasses say how big an entry is.
+ *
+ * @author Crawford Currie
+ * @param <K> key type
+ * @param <V> value type
+ */
+public abstract class BudgetedCache<K, V> implements MemoryBudget.Client {
+
+    private final LinkedHashMap<K, V> map;
+    private final MemoryBudget budget;
+    private final float cost;
+    private long bytes;
+
+    /**
+     * @param name name of the cache, for reporting
+     * @param cost relative cost of rebuilding an entry, per byte; caches
+     * with lower cost are evicted first
+     */
+    public BudgetedCache(String name, float cost) {
+        this(MemoryBudget.get(), name, cost);
+    }
+
+    /**
+     * @param b budget to draw from
+     * @param name name of the cache, for reporting
+     * @param cost relative cost of rebuilding an entry, per byte
+     */
+    public BudgetedCache(MemoryBudget b, String name, float cost) {
+        // Access order, so iteration starts at the least recently used
+        map = new LinkedHashMap<>(16, 0.75f, true);
+        budget = b;
+        this.cost = cost;
+        bytes = 0;
+        budget.register(this, name);
+    }
+
+    /**
+     * @param v a value
+     * @return approximate number of bytes of heap the value holds
+     */
+    protected abstract long sizeOf(V v);
+
+    /**
+     * @param k key to look up
+     * @return the cached value, or null
+     */
+    public V get(K k) {
+        V v;
+        synchronized (this) {
+            v = map.get(k);
+            if (v != null) {
+                budget.adjust(this, 0);
+            }
+        }
+        return v;
+    }
+
+    /**
+     * Add a value to the cache, evicting from this or other caches if the
+     * budget is exceeded
+     *
+     * @param k key
+     * @param v value
+     */
+    public void put(K k, V v) {
+        synchronized (this) {
+            long delta = sizeOf(v);
+            V old = map.put(k, v);
+            if (old != null) {
+                delta -= sizeOf(old);
+            }
+            bytes += delta;
+            budget.adjust(this, delta);
+        }
+        // Outside our lock, as the budget may call back to release()
+        budget.trim();
+    }
+
+    /**
+     * Remove a value from the cache
+     *
+     * @param k key
+     */
+    public synchronized void remove(K k) {
+        V old = map.remove(k);
+        if (old != null) {
+            long size = sizeOf(old);
+            bytes -= size;
+            budget.adjust(this, -size);
+        }
+    }
+
+    /**
+     * Empty the cache
+     */
+    public synchronized void clear() {
+        map.clear();
+        budget.adjust(this, -bytes);
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    /**
+     * @return bytes held by the cache
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public float getCost() {
+        return cost;
+    }
+
+    @Override
+    public synchronized void release(long wanted) {
+        long freed = 0;
+        Iterator<Map.Entry<K, V>> i = map.entrySet().iterator();
+        while (freed < wanted && i.hasNext()) {
+            freed += sizeOf(i.next().getValue());
+            i.remove();
+        }
+        bytes -= freed;
+        budget.adjust(this, -freed);
+    }
+}
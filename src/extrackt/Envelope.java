@@ -0,0 +1,436 @@
+package extrackt;
+
+import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Amplitude envelope of an audio stream: the peak and RMS level of each
+ * channel over every frame of about a millisecond. The envelope is small
+ * enough to keep next to the audio (as a .envelope file), and silences for
+ * any threshold can be found from it without reading the audio again. Only
+ * the frames at the edges of each silence need the audio, to place the edges
+ * exactly.
+ *
+ * Levels are absolute sample values, as used by Silences.Threshold.
+ *
+ * @author Crawford Currie
+ */
+public class Envelope {
+
+    /**
+     * File extension for the sidecar file
+     */
+    public static final String EXTENSION = ".envelope";
+
+    private static final int MAGIC = 0x58454e56; // "XENV"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+
+    private final float sampleRate;
+    private final int numChannels;
+    private final int samplesPerFrame;
+    private long sampleLength; // total samples covered
+    private int frames;
+    private float[] peak; // [frame * numChannels + channel]
+    private float[] rms; // [frame * numChannels + channel]
+
+    private Envelope(float rate, int channels, long length) {
+        sampleRate = rate;
+        numChannels = channels;
+        samplesPerFrame = Math.max(1, Math.round(rate / 1000));
+        sampleLength = 0;
+        frames = 0;
+        int capacity = (int) ((length + samplesPerFrame - 1) / samplesPerFrame);
+        peak = new float[Math.max(capacity, 1024) * channels];
+        rms = new float[peak.length];
+    }
+
+    /**
+     * A SampleCopier that builds an envelope of the samples passing through
+     * it. The samples are passed on unmodified, so the builder can sit under
+     * other copiers such as a SilenceWatcher.
+     */
+    public static class Builder extends SampleCopier {
+
+        private final Envelope envelope;
+        private final float[] framePeak; // per channel, current frame
+        private final double[] frameSquares; // per channel, current frame
+        private int frameFill; // samples in the current frame
+
+        /**
+         * @param in source of samples
+         * @param length expected number of samples, used to size the
+         * envelope; it will grow if needed
+         */
+        public Builder(SampleSource in, long length) {
+            super(in);
+            envelope = new Envelope(in.getSampleRate(), in.getNumChannels(), length);
+            framePeak = new float[in.getNumChannels()];
+            frameSquares = new double[in.getNumChannels()];
+            frameFill = 0;
+        }
+
+        @Override
+        public int readSamples(float[][] buff, int offset, int length) throws IOException {
+            if (isCancelled())
+                return -1;
+            int read = source.readSamples(buff, offset, length);
+            int nc = envelope.numChannels;
+            int spf = envelope.samplesPerFrame;
+            for (int i = 0; i < read; i++) {
+                float[] frame = buff[offset + i];
+                for (int c = 0; c < nc; c++) {
+                    float v = frame[c];
+                    frameSquares[c] += v * v;
+                    if (v < 0)
+                        v = -v;
+                    if (v > framePeak[c])
+                        framePeak[c] = v;
+                }
+                if (++frameFill == spf)
+                    endFrame();
+            }
+            return read;
+        }
+
+        private void endFrame() {
+            envelope.addFrame(framePeak, frameSquares, frameFill);
+            for (int c = 0; c < framePeak.length; c++) {
+                framePeak[c] = 0;
+                frameSquares[c] = 0;
+            }
+            frameFill = 0;
+        }
+
+        /**
+         * Finish off the envelope. Call once the stream has been read.
+         *
+         * @return the envelope of everything read so far
+         */
+        public Envelope getEnvelope() {
+            if (frameFill > 0)
+                endFrame();
+            return envelope;
+        }
+    }
+
+    private void addFrame(float[] p, double[] squares, int n) {
+        int at = frames * numChannels;
+        if (at + numChannels > peak.length) {
+            float[] np = new float[peak.length * 2];
+            System.arraycopy(peak, 0, np, 0, at);
+            peak = np;
+            float[] nr = new float[np.length];
+            System.arraycopy(rms, 0, nr, 0, at);
+            rms = nr;
+        }
+        for (int c = 0; c < numChannels; c++) {
+            peak[at + c] = p[c];
+            rms[at + c] = (float) Math.sqrt(squares[c] / n);
+        }
+        frames++;
+        sampleLength += n;
+    }
+
+    public float getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getNumChannels() {
+        return numChannels;
+    }
+
+    /**
+     * @return number of samples in each frame (the last may be shorter)
+     */
+    public int getSamplesPerFrame() {
+        return samplesPerFrame;
+    }
+
+    /**
+     * @return number of frames in the envelope
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of samples the envelope covers
+     */
+    public long getSampleLength() {
+        return sampleLength;
+    }
+
+    /**
+     * Was this envelope built from the given audio? Only the shape of the
+     * audio can be checked, not its content.
+     *
+     * @param audio the audio
+     * @return true if the envelope matches the audio
+     */
+    public boolean matches(RandomAccessAudioFile audio) {
+        return sampleLength == audio.getSampleLength()
+                && sampleRate == audio.getFormat().getSampleRate()
+                && numChannels == audio.getFormat().getChannels();
+    }
+
+    /**
+     * @param frame frame number
+     * @param channel channel number
+     * @return peak absolute level in the frame
+     */
+    public float getPeak(int frame, int channel) {
+        return peak[frame * numChannels + channel];
+    }
+
+    /**
+     * @param frame frame number
+     * @param channel channel number
+     * @return RMS level in the frame
+     */
+    public float getRMS(int frame, int channel) {
+        return rms[frame * numChannels + channel];
+    }
+
+    // Peak absolute level over all channels in a frame
+    private float framePeak(int frame) {
+        int at = frame * numChannels;
+        float m = peak[at];
+        for (int c = 1; c < numChannels; c++) {
+            if (peak[at + c] > m)
+                m = peak[at + c];
+        }
+        return m;
+    }
+
+    /**
+     * Can silences for this threshold be found exactly from the envelope? A
+     * silence must span at least one whole frame to be seen.
+     *
+     * @param t the threshold
+     * @return true if findSilences will find every silence for t
+     */
+    public boolean canFind(Silences.Threshold t) {
+        return (int) (t.duration * sampleRate) >= 2 * samplesPerFrame;
+    }
+
+    /**
+     * Find silences for the given thresholds, with the same definition of a
+     * silence as SilenceWatcher. Runs of silent frames are found from the
+     * envelope. If audio is given, the frames either side of each run are
+     * read to find the exact sample at which the silence starts and ends,
+     * and the results are exactly those a SilenceWatcher would give;
+     * otherwise the edges are only accurate to a frame, and are placed
+     * inside the silence.
+     *
+     * @param ts thresholds to find silences for
+     * @param l listener to tell about each silence; data is {level, max}
+     * @param audio the audio the envelope was built from, or null
+     * @param m monitor to check for cancellation, or null
+     * @throws IOException if the audio can't be read
+     */
+    public void findSilences(List<Silences.Threshold> ts, AudioRangeListener l,
+            RandomAccessAudioFile audio, Monitor m) throws IOException {
+        ArrayList<long[]> found = new ArrayList<>();
+        Iterator<Silences.Threshold> ti = ts.iterator();
+        while (ti.hasNext()) {
+            if (m != null && m.isCancelled())
+                return;
+            findSilences(ti.next(), found, audio);
+        }
+        // Report in the order a SilenceWatcher would; by end, then level
+        Collections.sort(found, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                if (a[1] != b[1])
+                    return a[1] < b[1] ? -1 : 1;
+                return Long.compare(a[2], b[2]);
+            }
+        });
+        Iterator<long[]> fi = found.iterator();
+        while (fi.hasNext()) {
+            long[] s = fi.next();
+            int[] data = new int[2];
+            data[0] = (int) s[2];
+            data[1] = (int) s[3];
+            if (!l.rangeEvent(s[0] / sampleRate, s[1] / sampleRate, data))
+                return;
+        }
+    }
+
+    // Add the silences for a threshold to found, as {start, end, level, max}
+    private void findSilences(Silences.Threshold t, ArrayList<long[]> found,
+            RandomAccessAudioFile audio) throws IOException {
+        int level = t.level;
+        long minSamples = (int) (t.duration * sampleRate);
+        int f = 0;
+        while (f < frames) {
+            if (framePeak(f) > level) {
+                f++;
+                continue;
+            }
+            // Run of silent frames [first, f)
+            int first = f;
+            float max = 0;
+            float p;
+            while (f < frames && (p = framePeak(f)) <= level) {
+                if (p > max)
+                    max = p;
+                f++;
+            }
+            long start = (long) first * samplesPerFrame;
+            long end = Math.min((long) f * samplesPerFrame, sampleLength);
+            // The silence can extend at most a frame either side
+            long longest = end - start;
+            if (first > 0)
+                longest += samplesPerFrame - 1;
+            if (f < frames)
+                longest += samplesPerFrame - 1;
+            if (longest <= minSamples)
+                continue;
+            if (audio != null) {
+                // Refine the edges from the loud frames either side
+                if (first > 0) {
+                    float[] pk = samplePeaks(audio, start - samplesPerFrame, samplesPerFrame);
+                    int i = pk.length;
+                    while (i > 0 && pk[i - 1] <= level) {
+                        i--;
+                        if (pk[i] > max)
+                            max = pk[i];
+                    }
+                    start -= pk.length - i;
+                }
+                if (f < frames) {
+                    float[] pk = samplePeaks(audio, end,
+                            (int) Math.min(samplesPerFrame, sampleLength - end));
+                    int i = 0;
+                    while (i < pk.length && pk[i] <= level) {
+                        if (pk[i] > max)
+                            max = pk[i];
+                        i++;
+                    }
+                    end += i;
+                }
+            }
+            if (end - start > minSamples) {
+                found.add(new long[]{start, end, level, (long) max});
+            }
+        }
+    }
+
+    // Read n samples from the audio, and return the peak absolute level over
+    // all channels of each
+    private float[] samplePeaks(RandomAccessAudioFile audio, long from, int n) throws IOException {
+        SampleSource s = new SamplesFromPCMData(new PCMDataSource(
+                audio.getSampleInputStream((int) from, n)));
+        float[][] buff = new float[n][numChannels];
+        int read = 0;
+        while (read < n) {
+            int r = s.readSamples(buff, read, n - read);
+            if (r <= 0)
+                break;
+            read += r;
+        }
+        float[] pk = new float[read];
+        for (int i = 0; i < read; i++) {
+            float mx = 0;
+            for (int c = 0; c < numChannels; c++) {
+                float v = Math.abs(buff[i][c]);
+                if (v > mx)
+                    mx = v;
+            }
+            pk[i] = mx;
+        }
+        return pk;
+    }
+
+    /**
+     * Write the envelope to a file. The format is a header of eight ints
+     * (magic, version, sample rate * 1000, channels, samples per frame,
+     * frames, and the sample length as two ints), followed by the peaks and
+     * then the RMS levels, as big-endian floats.
+     *
+     * @param file file to write
+     * @throws IOException if the file can't be written
+     */
+    public void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(Math.round(sampleRate * 1000));
+            out.writeInt(numChannels);
+            out.writeInt(samplesPerFrame);
+            out.writeInt(frames);
+            out.writeLong(sampleLength);
+            int n = frames * numChannels;
+            for (int i = 0; i < n; i++) {
+                out.writeFloat(peak[i]);
+            }
+            for (int i = 0; i < n; i++) {
+                out.writeFloat(rms[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Read an envelope written by write(). The file is mapped rather than
+     * read, so loading is quick even for long recordings.
+     *
+     * @param file file to read
+     * @return the envelope
+     * @throws IOException if the file can't be read or is not an envelope
+     */
+    public static Envelope read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (b.remaining() < HEADER_SIZE || b.getInt() != MAGIC) {
+                throw new IOException(file + " is not an envelope");
+            }
+            if (b.getInt() != VERSION) {
+                throw new IOException(file + " is an unsupported envelope version");
+            }
+            float rate = b.getInt() / 1000f;
+            int channels = b.getInt();
+            int spf = b.getInt();
+            int frames = b.getInt();
+            long length = b.getLong();
+            int n = frames * channels;
+            if (channels <= 0 || frames < 0 || b.remaining() < 8L * n) {
+                throw new IOException(file + " is truncated");
+            }
+            Envelope e = new Envelope(rate, channels, length);
+            if (e.samplesPerFrame != spf) {
+                throw new IOException(file + " has an unexpected frame size");
+            }
+            if (e.peak.length < n) {
+                e.peak = new float[n];
+                e.rms = new float[n];
+            }
+            b.asFloatBuffer().get(e.peak, 0, n);
+            b.position(b.position() + 4 * n);
+            b.asFloatBuffer().get(e.rms, 0, n);
+            e.frames = frames;
+            e.sampleLength = length;
+            return e;
+        } finally {
+            raf.close();
+        }
+    }
+}
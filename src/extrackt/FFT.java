@@ -5,10 +5,6 @@
  */
 package extrackt;
 
-import java.util.Timer;
-import java.util.TimerTask;
-import static java.lang.Thread.yield;
-
 /**
  * FFT computes FFT's of complex, double precision data of arbitrary length n.
  *
@@ -65,7 +61,8 @@ public class FFT {
 
     private int n;
     private double[] data;
-    public boolean interrupted;
+    public volatile boolean interrupted;
+    private final Monitor monitor;
 
     /**
      * Constructs a complex FFT transformation for n complex data points. The
@@ -80,15 +77,159 @@ public class FFT {
      * Im(D[i]) = data[i+1]. For an transform of real data, Im is 0.
      */
     public FFT(int direction, double data[]) throws InterruptedException {
+        this(direction, data, null);
+    }
+
+    /**
+     * Constructs a complex FFT transformation that can be cancelled from
+     * another thread through a Monitor.
+     *
+     * @param direction FORWARD or BACKWARD
+     * @param data [2*n] array of data
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public FFT(int direction, double data[], Monitor m) throws InterruptedException {
+        this(Plan.get(data.length / 2), direction, data, m);
+    }
+
+    /**
+     * Constructs a complex FFT transformation using a plan already obtained
+     * for the size of the data.
+     *
+     * @param plan plan for n points
+     * @param direction FORWARD or BACKWARD
+     * @param data [2*n] array of data
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public FFT(Plan plan, int direction, double data[], Monitor m) throws InterruptedException {
+        this(plan, data, m);
         if (data.length % 2 == 1) {
             throw new IllegalArgumentException("The data array is uneven length");
         }
+        if (data.length != 2 * plan.n) {
+            throw new IllegalArgumentException("The plan is for " + plan.n + " points");
+        }
+        transform_internal(0, 2, direction);
+    }
+
+    // Set up, but don't run, a transform of the first plan.n points of data
+    private FFT(Plan plan, double data[], Monitor m) {
         this.data = data;
-        n = data.length / 2;
-        // SMELL: we never yield, so can this ever be set true?
+        n = plan.n;
         interrupted = false;
-        setup_wavetable();
-        transform_internal(0, 2, direction);
+        monitor = m;
+        factors = plan.factors;
+        twiddle = plan.twiddle;
+    }
+
+    /**
+     * Transform real data, computing only the non-negative frequencies. The
+     * other half of the transform of real data is the complex conjugate of
+     * this half, so is never needed. The n samples are treated as n/2
+     * complex points, which are transformed by a complex FFT of half the
+     * size, and the result unscrambled. This takes about half the time and
+     * memory of a complex transform of the samples.
+     *
+     * @param n number of samples
+     * @param data array of at least n + 2 (n + 1 if n is odd). On entry,
+     * data[0..n-1] are the samples. On return, Re(D[k]) = data[2k] and Im(D[k])
+     * = data[2k+1], for k = 0..n/2, in the same scaling as a FORWARD
+     * transform.
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public static void realForward(int n, double data[], Monitor m) throws InterruptedException {
+        int half = n / 2;
+        if (data.length < 2 * half + 2) {
+            throw new IllegalArgumentException("The data array is too short");
+        }
+        if (n % 2 == 1 || n < 4) {
+            // No half size transform, so do it the long way
+            double[] d = new double[2 * n];
+            for (int i = 0; i < n; i++) {
+                d[2 * i] = data[i];
+            }
+            new FFT(FORWARD, d, m);
+            System.arraycopy(d, 0, data, 0, 2 * half + 2);
+            return;
+        }
+
+        // Even samples are the real part, odd the imaginary part
+        new FFT(Plan.get(half), data, m).transform_internal(0, 2, FORWARD);
+
+        // D[k] = E[k] + W^k O[k], where E and O are the transforms of the
+        // even and odd samples, and W = exp(-2 pi i / n). D[half - k] is
+        // the conjugate of E[k] - W^k O[k], so both are done at once.
+        double[] w = realTwiddles(n);
+        double a = data[0];
+        double b = data[1];
+        data[0] = a + b;
+        data[1] = 0;
+        data[2 * half] = a - b;
+        data[2 * half + 1] = 0;
+        for (int k = 1; k <= half / 2; k++) {
+            int i = 2 * k;
+            int j = 2 * (half - k);
+            a = data[i];
+            b = data[i + 1];
+            double c = data[j];
+            double d = data[j + 1];
+            double er = (a + c) / 2, ei = (b - d) / 2;
+            double or = (b + d) / 2, oi = (c - a) / 2;
+            double wr = w[i], wi = w[i + 1];
+            double tr = wr * or - wi * oi;
+            double ti = wr * oi + wi * or;
+            data[i] = er + tr;
+            data[i + 1] = ei + ti;
+            if (j != i) {
+                data[j] = er - tr;
+                data[j + 1] = ti - ei;
+            }
+        }
+    }
+
+    // The twiddle factors of a plan, in single precision
+    static float[][][] floatTwiddles(Plan plan) {
+        float[][][] t = floatTwiddles.get(plan.n);
+        if (t == null) {
+            t = new float[plan.twiddle.length][][];
+            for (int i = 0; i < t.length; i++) {
+                double[][] twid = plan.twiddle[i];
+                t[i] = new float[twid.length][twid[0].length];
+                for (int k = 0; k < twid.length; k++) {
+                    for (int j = 0; j < twid[k].length; j++) {
+                        t[i][k][j] = (float) twid[k][j];
+                    }
+                }
+            }
+            floatTwiddles.put(plan.n, t);
+        }
+        return t;
+    }
+
+    // W^k = exp(-2 pi i k / n) for k = 0..n/4, as [Re, Im] pairs
+    static double[] realTwiddles(int n) {
+        double[] w = realTwiddles.get(n);
+        if (w == null) {
+            int q = n / 4;
+            w = new double[2 * q + 2];
+            for (int k = 0; k <= q; k++) {
+                double theta = -2.0 * Math.PI * k / n;
+                w[2 * k] = Math.cos(theta);
+                w[2 * k + 1] = Math.sin(theta);
+            }
+            realTwiddles.put(n, w);
+        }
+        return w;
+    }
+
+    /**
+     * Has the transform been asked to stop?
+     */
+    private boolean interrupted() {
+        return interrupted || (monitor != null && monitor.isCancelled());
     }
 
     /**
@@ -171,43 +312,119 @@ public class FFT {
     private int factors[];
     // Reversed the last 2 levels of the twiddle array compared to what the C version had.
     private double twiddle[][][];
-    private final int available_factors[] = {7, 6, 5, 4, 3, 2};
+    private static final int available_factors[] = {7, 6, 5, 4, 3, 2};
 
-    private void setup_wavetable() throws InterruptedException {
-        factors = factor(n, available_factors);
-        double d_theta = -2.0 * Math.PI / ((double) n);
-        int product = 1;
-        twiddle = new double[factors.length][][];
-        for (int i = 0; i < factors.length; i++) {
-            int factor = factors[i];
-            int product_1 = product;       /* product_1 = p_(i-1) */
+    /**
+     * The parts of a transform that depend only on its size: the
+     * factorisation of n and the twiddle factors for each pass. A plan is
+     * immutable, so one plan is shared by every transform of a size, on any
+     * thread. Plans are cached, so a run of same-size transforms (such as
+     * the windows of a spectrum) only does arithmetic.
+     */
+    public static class Plan {
 
-            product *= factor;
-            int q = n / product;
-            twiddle[i] = new double[q + 1][2 * (factor - 1)];
-            double twid[][] = twiddle[i];
-            for (int j = 1; j < factor; j++) {
-                twid[0][2 * (j - 1)] = 1.0;
-                twid[0][2 * (j - 1) + 1] = 0.0;
-            }
-            for (int k = 1; k <= q; k++) {
-                int m = 0;
+        private final int n;
+        final int factors[];
+        final double twiddle[][][];
+        private final long bytes;
+
+        private Plan(int n) {
+            this.n = n;
+            factors = factor(n, available_factors);
+            double d_theta = -2.0 * Math.PI / ((double) n);
+            int product = 1;
+            long size = 0;
+            twiddle = new double[factors.length][][];
+            for (int i = 0; i < factors.length; i++) {
+                int factor = factors[i];
+                int product_1 = product;       /* product_1 = p_(i-1) */
+
+                product *= factor;
+                int q = n / product;
+                twiddle[i] = new double[q + 1][2 * (factor - 1)];
+                size += (q + 1) * (16 + 8L * 2 * (factor - 1) + 8);
+                double twid[][] = twiddle[i];
                 for (int j = 1; j < factor; j++) {
-                    //      int m = (k*j*product_1) % n;
-                    m += k * product_1;
-                    m %= n;
-                    double theta = d_theta * m;  /*  d_theta*j*k*p_(i-1) */
+                    twid[0][2 * (j - 1)] = 1.0;
+                    twid[0][2 * (j - 1) + 1] = 0.0;
+                }
+                for (int k = 1; k <= q; k++) {
+                    int m = 0;
+                    for (int j = 1; j < factor; j++) {
+                        //      int m = (k*j*product_1) % n;
+                        m += k * product_1;
+                        m %= n;
+                        double theta = d_theta * m;  /*  d_theta*j*k*p_(i-1) */
 
-                    twid[k][2 * (j - 1)] = Math.cos(theta);
-                    twid[k][2 * (j - 1) + 1] = Math.sin(theta);
-                    if (interrupted) {
-                        throw new InterruptedException();
+                        twid[k][2 * (j - 1)] = Math.cos(theta);
+                        twid[k][2 * (j - 1) + 1] = Math.sin(theta);
                     }
                 }
             }
+            bytes = size;
+        }
+
+        /**
+         * Get the plan for a transform of n complex points, from the cache
+         * if possible
+         *
+         * @param n number of points
+         * @return the plan
+         */
+        public static Plan get(int n) {
+            Plan p = plans.get(n);
+            if (p == null) {
+                p = new Plan(n);
+                plans.put(n, p);
+            }
+            return p;
+        }
+
+        /**
+         * @return the number of points in the transform
+         */
+        public int getSize() {
+            return n;
+        }
+
+        /**
+         * @return the factors of the size, one per pass
+         */
+        public int[] getFactors() {
+            return factors.clone();
         }
     }
 
+    private static final BudgetedCache<Integer, Plan> plans
+            = new BudgetedCache<Integer, Plan>("FFT plans", 4) {
+                @Override
+                protected long sizeOf(Plan p) {
+                    return p.bytes;
+                }
+            };
+
+    // Single precision copies of the twiddle factors of plans, for FloatFFT.
+    // Only built for sizes that FloatFFT is used on.
+    private static final BudgetedCache<Integer, float[][][]> floatTwiddles
+            = new BudgetedCache<Integer, float[][][]>("Float FFT twiddles", 4) {
+                @Override
+                protected long sizeOf(float[][][] t) {
+                    long size = 16;
+                    for (int i = 0; i < t.length; i++) {
+                        size += 16 + t[i].length * (16 + 4L * t[i][0].length + 8);
+                    }
+                    return size;
+                }
+            };
+
+    private static final BudgetedCache<Integer, double[]> realTwiddles
+            = new BudgetedCache<Integer, double[]>("Real FFT twiddles", 4) {
+                @Override
+                protected long sizeOf(double[] w) {
+                    return 16 + 8L * w.length;
+                }
+            };
+
     /*
      * The main transformation driver
      */
@@ -326,7 +543,7 @@ public class FFT {
                 out[j + dj] = w_real * x_real - w_imag * x_imag;
                 out[j + dj + 1] = w_real * x_imag + w_imag * x_real;
                 j += ostride;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -399,7 +616,7 @@ public class FFT {
                 out[j + 2 * dj] = w2_real * x_real - w2_imag * x_imag;
                 out[j + 2 * dj + 1] = w2_real * x_imag + w2_imag * x_real;
                 j += ostride;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -483,7 +700,7 @@ public class FFT {
                 out[j + 3 * dj] = w3_real * x_real - w3_imag * x_imag;
                 out[j + 3 * dj + 1] = w3_real * x_imag + w3_imag * x_real;
                 j += ostride;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -600,7 +817,7 @@ public class FFT {
                 out[j + 4 * dj] = w4_real * x_real - w4_imag * x_imag;
                 out[j + 4 * dj + 1] = w4_real * x_imag + w4_imag * x_real;
                 j += ostride;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -731,7 +948,7 @@ public class FFT {
                 out[j + 5 * dj] = w5_real * x_real - w5_imag * x_imag;
                 out[j + 5 * dj + 1] = w5_real * x_imag + w5_imag * x_real;
                 j += ostride;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -926,7 +1143,7 @@ public class FFT {
                 out[j + 6 * dj] = w6_real * x_real - w6_imag * x_imag;
                 out[j + 6 * dj + 1] = w6_real * x_imag + w6_imag * x_real;
                 j += ostride;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -969,7 +1186,7 @@ public class FFT {
                 out[out0 + ostride * idx + 1] = in[in0 + istride * idx + 1] + in[in0 + istride * idxc + 1];
                 out[out0 + ostride * idxc] = in[in0 + istride * idx] - in[in0 + istride * idxc];
                 out[out0 + ostride * idxc + 1] = in[in0 + istride * idx + 1] - in[in0 + istride * idxc + 1];
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -983,7 +1200,7 @@ public class FFT {
             for (i = 0; i < m; i++) {
                 in[in0 + istride * i] += out[out0 + ostride * (i + e1 * m)];
                 in[in0 + istride * i + 1] += out[out0 + ostride * (i + e1 * m) + 1];
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -999,7 +1216,7 @@ public class FFT {
                 in[in0 + istride * (i + em) + 1] = out[out0 + ostride * i + 1];
                 in[in0 + istride * (i + ecm)] = out[out0 + ostride * i];
                 in[in0 + istride * (i + ecm) + 1] = out[out0 + ostride * i + 1];
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -1020,7 +1237,7 @@ public class FFT {
                     in[in0 + istride * (i + em) + 1] += (bp + bm);
                     in[in0 + istride * (i + ecm)] += (ap + am);
                     in[in0 + istride * (i + ecm) + 1] += (bp - bm);
-                    if (interrupted) {
+                    if (interrupted()) {
                         throw new InterruptedException();
                     }
                 }
@@ -1032,7 +1249,7 @@ public class FFT {
         for (k1 = 0; k1 < p_1; k1++) {
             out[out0 + ostride * k1] = in[in0 + istride * k1];
             out[out0 + ostride * k1 + 1] = in[in0 + istride * k1 + 1];
-            if (interrupted) {
+            if (interrupted()) {
                 throw new InterruptedException();
             }
         }
@@ -1040,7 +1257,7 @@ public class FFT {
             for (k1 = 0; k1 < p_1; k1++) {
                 out[out0 + ostride * (k1 + e1 * p_1)] = in[in0 + istride * (k1 + e1 * m)];
                 out[out0 + ostride * (k1 + e1 * p_1) + 1] = in[in0 + istride * (k1 + e1 * m) + 1];
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -1053,7 +1270,7 @@ public class FFT {
                 out[out0 + ostride * j + 1] = in[in0 + istride * i + 1];
                 i++;
                 j++;
-                if (interrupted) {
+                if (interrupted()) {
                     throw new InterruptedException();
                 }
             }
@@ -1071,7 +1288,7 @@ public class FFT {
                     double w_imag = -sign * twiddl[2 * (e1 - 1) + 1];
                     out[out0 + ostride * (j + e1 * p_1)] = w_real * x_real - w_imag * x_imag;
                     out[out0 + ostride * (j + e1 * p_1) + 1] = w_real * x_imag + w_imag * x_real;
-                    if (interrupted) {
+                    if (interrupted()) {
                         throw new InterruptedException();
                     }
                 }
@@ -1082,6 +1299,16 @@ public class FFT {
         }
     }
 
+    /**
+     * Factor n as a transform of n points does, without building a plan
+     *
+     * @param n number of points
+     * @return the factors, one per pass
+     */
+    public static int[] factor(int n) {
+        return factor(n, available_factors);
+    }
+
     /**
      * Return the prime factors of n. The method first extracts any factors in
      * fromfactors, in order (which needn't actually be prime). Remaining
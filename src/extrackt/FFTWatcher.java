@@ -1,166 +1,207 @@
 package extrackt;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import extrackt.dsp.ChirpZ;
+import extrackt.dsp.FFTService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
 
 /**
  * Sits on an audio stream and performs an FFT on *all* the samples in it.
  * Input data is passed on* untouched to the consumer, and the FFT data is
- * passed to watchers. The Threading here is fairly complex. Each FFTWatcher
- * is a thread, and each FFT it performs is another thread. This allows for
- * good interruptability with useful results even from a partial FFT.
+ * passed to watchers. The stream is cut into windows, and the FFT of each
+ * window is run as a task on the shared compute pool
+ * (JobScheduler.getComputePool()), so a long stream doesn't start a thread
+ * per window. The magnitudes are added to a running sum as each transform
+ * completes, and only a few windows are in flight at once, so memory use
+ * doesn't grow with the length of the stream. wait() gives the average.
  * The major purpose of this class is to generate an FFT of the whole of a short
  * piece of signal. It's not useful for continuous FFT of a sample stream.
- * 
+ *
  * @author crawford
  */
 public class FFTWatcher implements SampleWatcher.Watcher {
 
-    private double[] d;
+    private float[] d;
     private int d_len;
 
-    private final float[] f; // sum of frequency power
     private final int windowSize; // window size, in samples
-    private final int windowClip;
-    private Thread waiter;
-    ArrayList<Thread> ffts = new ArrayList<>();
-    ArrayList<double[]> results = new ArrayList<>();
-    
+    private final int clip; // number of frequencies in the result
+    private final float[] sum; // sum of magnitudes, guarded by itself
+    private final ChirpZ zoom; // computes only the bins up to clip, or null
+    private int windows; // number of windows summed, guarded by sum
+    private final ForkJoinPool pool;
+    private final int maxInFlight;
+    private final Semaphore inFlight; // one permit per window not in flight
+    private final ConcurrentLinkedQueue<float[]> free; // buffers for reuse
+    private volatile Monitor monitor;
+    private volatile boolean interrupted;
+
+    // Passed to each FFT so it can be cancelled part way through
+    private final Monitor cancel = new Monitor() {
+        @Override
+        public boolean isCancelled() {
+            return FFTWatcher.this.isCancelled();
+        }
+
+        @Override
+        public void progress(long done, long total) {
+        }
+    };
+
     /**
      * @param ws FFT window size, in number of samples. the result will
      * be ws/2 in size, as we discard the negative frequencies
-     * @param clip of the maximum frequency we are interested in
+     * @param clip number of frequencies (bins) we are interested in, or 0
+     * for all of them
      */
     public FFTWatcher(int ws, int clip) {
-        waiter = null;
+        monitor = null;
+        interrupted = false;
         windowSize = ws;
-        windowClip = clip;
-        f = new float[windowSize / 2]; // Not interested in the -ve frequencies
-        d = new double[windowSize * 2]; // [Re, Im]
+        if (clip <= 0 || clip > windowSize / 2) {
+            clip = windowSize / 2; // Not interested in the -ve frequencies
+        }
+        this.clip = clip;
+        sum = new float[clip];
+        // When only the low frequencies are wanted, computing just those
+        // bins can be cheaper than the whole transform
+        if (clip < windowSize / 2
+                && ChirpZ.getCost(windowSize, clip) < FFTService.getRealCost(windowSize)) {
+            zoom = ChirpZ.get(windowSize, clip);
+        } else {
+            zoom = null;
+        }
+        windows = 0;
+        pool = JobScheduler.getComputePool();
+        // Enough to keep the pool busy while the next window is filled
+        maxInFlight = 2 * pool.getParallelism();
+        inFlight = new Semaphore(maxInFlight);
+        free = new ConcurrentLinkedQueue<>();
+        d = new float[windowSize + 2]; // samples, then [Re, Im]
         d_len = 0;
     }
 
+    /**
+     * Set a monitor that can cancel the FFTs. Cancellation is checked inside
+     * each transform, so a superseded FFT stops almost immediately.
+     * @param m the monitor
+     */
+    public void setMonitor(Monitor m) {
+        monitor = m;
+    }
+
+    private boolean isCancelled() {
+        return interrupted || (monitor != null && monitor.isCancelled());
+    }
+
+    /**
+     * Abandon the FFTs
+     */
     public void interrupt() {
-        if (waiter != null) {
-            waiter.interrupt();
+        interrupted = true;
+    }
+
+    // Add the magnitudes of the positive frequencies to the sum. The input
+    // data is real, so only they are computed; each negative frequency is
+    // the complex conjugate of the corresponding positive one.
+    private void accumulate(float[] d) {
+        synchronized (sum) {
+            for (int i = 0; i < clip; i++) {
+                int j = i * 2;
+                float re = d[j];
+                float im = d[j + 1]; // Imag
+                sum[i] += (float) Math.sqrt(re * re + im * im) / windowSize;
+            }
+            windows++;
         }
     }
 
-    private Thread fft(final double[] d) {
+    private void fft(final float[] d) {
         // The human voice covers a range of 80 Hz to a peak in the 1-3 kHz
         // region and falls off pretty rapidly afterwards. There's not a lot
         // of energy above 10 kHz. Most of the energy is 125 Hz to about 6 kHz.
         // So a first approximation is to find that power band. To do that I
         // need to scale the results of the FFT.
 
-        Thread th = new Thread() {
-            FFT fft;
-
+        // Wait for a slot, so windows can't pile up faster than they are
+        // transformed
+        inFlight.acquireUninterruptibly();
+        pool.execute(new Runnable() {
             @Override
             public void run() {
                 try {
-                    fft = new FFT(FFT.FORWARD, d);
-                    // The input data is real, so each negative frequency (the second
-                    // half of the result) is the complex conjugate (same real part, but
-                    // with imaginary parts of equal magnitude and opposite sign) of the
-                    // corresponding entry in the first half. So we can simply ignore the
-                    // second half of the array.
-                    results.add(d);
+                    if (!isCancelled()) {
+                        if (zoom != null) {
+                            zoom.realTransform(d, d, cancel);
+                        } else {
+                            FFTService.realForward(windowSize, d, cancel);
+                        }
+                        accumulate(d);
+                    }
                 } catch (InterruptedException ie) {
-                    System.out.println("FFT  thread interrupted");
+                    // Cancelled
+                } finally {
+                    free.offer(d);
+                    inFlight.release();
                 }
             }
-
-            @Override
-            public void interrupt() {
-                fft.interrupted = true;
-                super.interrupt();
-            }
-        };
-        th.start();
-        return th;
+        });
     }
 
     @Override
     public void addSamples(float[][] b) {
-        // Fill the sample buffer with amplitude data
-        float[] window = new float[windowSize];
-        for (int i = 0; i < windowSize; i++) {
+        if (isCancelled())
+            return;
+//        WindowFrames.Function hann = new WindowFrames.Hann();
+//        hann.window(window, windowSize);
+
+        for (int i = 0; i < b.length; i++) {
             float sample = 0;
             // Sum all the channels
-            for (int chan = 0; chan < b[0].length; chan++) {
+            for (int chan = 0; chan < b[i].length; chan++) {
                 sample += b[i][chan];
             }
-            window[i] = sample;
-        }
-//        WindowFrames.Function hann = new WindowFrames.Hann();
-//        hann.window(window, windowSize);
-        
-        for (int i = 0; i < windowSize; i++) {
-            d[d_len++] = window[i]; // Re
-            d[d_len++] = 0;  // Im
+            d[d_len++] = sample;
 
-            if (d_len == 2 * windowSize) {
-                ffts.add(fft(d));
+            if (d_len == windowSize) {
+                fft(d);
 
-                // Allocate a new buffer for the next window
-                d = new double[2 * windowSize];
+                // Take a buffer for the next window
+                d = free.poll();
+                if (d == null) {
+                    d = new float[windowSize + 2];
+                }
                 d_len = 0;
             }
         }
     }
 
+    /**
+     * Wait for all the transforms to complete, then send the average of the
+     * magnitudes to a watcher, as one sample per frequency. Nothing is sent
+     * if the FFTs were cancelled. The watcher is ready for the next stream
+     * afterwards.
+     *
+     * @param whenReady the watcher to send the result to
+     */
     public void wait(final SampleWatcher.Watcher whenReady) {
-        // Wait for all the computation threads to complete before
-        // sending the result to the sucker.
-        final ArrayList<Thread> waitFor = ffts;
-        final ArrayList<double[]> res = results;
-        ffts = new ArrayList<>(); // ready for the next run
-        results = new ArrayList<>();
-        waiter = new Thread() {
-            @Override
-            public void run() {
-                Iterator<Thread> fi = waitFor.iterator();
-                while (fi.hasNext()) {
-                    Thread fft = fi.next();
-                    if (fft.isAlive()) {
-                        try {
-                            fft.join();
-                        } catch (InterruptedException ie) {
-                        }
-                    }
-                }
-                // Average the collected results for each window
-                int clip = windowClip;
-                if (clip <= 0 || clip > windowSize / 2)
-                    clip = windowSize / 2;
-                float[][] a = new float[clip][1];
-                Iterator<double[]> it = res.iterator();
-                while (it.hasNext()) {
-                    double[] d = it.next();
-                     for (int i = 0; i < clip; i++) {
-                        int j = i * 2;
-                        double re = d[j];
-                        double im = d[j + 1]; // Imag
-                        a[i][0] += (float)Math.sqrt(re * re + im * im) / windowSize;
-                    }
-                }
-                for (int i = 0; i < clip; i++) {
-                    // 20 * log10(sqrt(Re^2 + Im^2))
-                     a[i][0] /= results.size();
-                }
-                whenReady.addSamples(a);
-            }
-
-            @Override
-            public void interrupt() {
-                Iterator<Thread> fi = ffts.iterator();
-                while (fi.hasNext()) {
-                    fi.next().interrupt();
-                }
-                super.interrupt();
+        inFlight.acquireUninterruptibly(maxInFlight);
+        inFlight.release(maxInFlight);
+        float[][] a = new float[clip][1];
+        int n;
+        synchronized (sum) {
+            n = windows;
+            for (int i = 0; i < clip; i++) {
+                // 20 * log10(sqrt(Re^2 + Im^2))
+                a[i][0] = (n > 0) ? sum[i] / n : 0;
+                sum[i] = 0;
             }
-        };
-        waiter.start();
+            windows = 0;
+        }
+        d_len = 0;
+        if (!isCancelled() && n > 0) {
+            whenReady.addSamples(a);
+        }
     }
 }
@@ -0,0 +1,359 @@
+package extrackt;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs jobs on a bounded pool of worker threads. Jobs are started as soon
+ * as a worker is free; when more jobs are queued than there are workers, the
+ * job with the highest priority (lowest number) runs first, and jobs of equal
+ * priority run in the order they were submitted.
+ *
+ * @author Crawford Currie
+ */
+public class JobScheduler {
+
+    /** Priority of jobs the user is waiting on, e.g. previews */
+    public static final int INTERACTIVE = 0;
+    /** Priority of jobs that write output, e.g. track export */
+    public static final int EXPORT = 1;
+    /** Priority of jobs that analyse audio in the background */
+    public static final int BACKGROUND = 2;
+
+    private static final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * A unit of work that can be scheduled. Subclasses implement execute().
+     * A job records when it was queued, started and finished, and the
+     * fraction of the work it has completed. A job is its own Monitor, so it
+     * can be handed directly to the operations it runs.
+     */
+    public static abstract class Job implements Runnable, Comparable<Job>, Monitor {
+
+        private final String name;
+        private final int priority;
+        private final long order;
+        private volatile boolean cancelled;
+        private volatile float progress;
+        private long queued, started, finished; // System.nanoTime()
+        private JobScheduler scheduler;
+
+        /**
+         * @param name name of the job, for reporting
+         * @param priority one of INTERACTIVE, EXPORT or BACKGROUND
+         */
+        public Job(String name, int priority) {
+            this.name = name;
+            this.priority = priority;
+            order = sequence.getAndIncrement();
+            cancelled = false;
+            progress = 0;
+        }
+
+        /**
+         * Do the work of the job. Long-running jobs should check
+         * isCancelled() regularly, and report progress using setProgress().
+         *
+         * @throws Exception if the job failed
+         */
+        protected abstract void execute() throws Exception;
+
+        /**
+         * Called on the worker thread when the job has finished, whether it
+         * completed, failed, or was cancelled. Default is a NOP.
+         *
+         * @param failure the exception that terminated the job, or null
+         */
+        protected void done(Exception failure) {
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        /**
+         * Ask the job to stop. A job that has not yet started will not be
+         * run; a running job will stop the next time it checks.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void progress(long done, long total) {
+            if (total > 0) {
+                progress = (float) done / total;
+            }
+        }
+
+        /**
+         * @param p fraction of the job completed, 0..1
+         */
+        protected void setProgress(float p) {
+            progress = p;
+        }
+
+        /**
+         * @return fraction of the job completed, 0..1
+         */
+        public float getProgress() {
+            return progress;
+        }
+
+        /**
+         * @return true once the job has finished running
+         */
+        public synchronized boolean isFinished() {
+            return finished != 0;
+        }
+
+        /**
+         * @return time spent waiting in the queue, in milliseconds
+         */
+        public synchronized long getQueueTime() {
+            if (started == 0) {
+                return 0;
+            }
+            return (started - queued) / 1000000;
+        }
+
+        /**
+         * @return time spent running, in milliseconds
+         */
+        public synchronized long getRunTime() {
+            if (started == 0) {
+                return 0;
+            }
+            long end = (finished == 0) ? System.nanoTime() : finished;
+            return (end - started) / 1000000;
+        }
+
+        @Override
+        public int compareTo(Job o) {
+            if (priority != o.priority) {
+                return priority < o.priority ? -1 : 1;
+            }
+            return order < o.order ? -1 : (order == o.order ? 0 : 1);
+        }
+
+        @Override
+        public final void run() {
+            Exception failure = null;
+            synchronized (this) {
+                started = System.nanoTime();
+            }
+            try {
+                if (!cancelled) {
+                    execute();
+                    if (!cancelled) {
+                        progress = 1;
+                    }
+                }
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                synchronized (this) {
+                    finished = System.nanoTime();
+                }
+                done(failure);
+                scheduler.finished(this);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + (int) (progress * 100) + "% queued "
+                    + getQueueTime() + "ms ran " + getRunTime() + "ms";
+        }
+    }
+
+    /**
+     * An action waiting for all jobs of a priority to finish
+     */
+    private static class IdleAction {
+
+        final int priority;
+        final Runnable action;
+
+        IdleAction(int p, Runnable r) {
+            priority = p;
+            action = r;
+        }
+    }
+
+    private static ForkJoinPool computePool = null;
+
+    private final ThreadPoolExecutor executor;
+    private final ArrayList<Job> active;
+    private final ArrayList<IdleAction> whenIdle;
+
+    /**
+     * Create a scheduler with one worker per available processor.
+     */
+    public JobScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param workers maximum number of jobs to run at once
+     */
+    public JobScheduler(int workers) {
+        if (workers < 1) {
+            workers = 1;
+        }
+        active = new ArrayList<>();
+        whenIdle = new ArrayList<>();
+        executor = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable r) {
+                        Thread th = new Thread(r, "JobScheduler-" + (++count));
+                        // Workers must not keep the application alive
+                        th.setDaemon(true);
+                        // Leave the EDT and the player some headroom
+                        th.setPriority(Thread.NORM_PRIORITY - 1);
+                        return th;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the pool shared by computations that split into many small tasks,
+     * such as the transforms of an FFT. It has one worker per available
+     * processor. Jobs can hand work to it and wait for the results, rather
+     * than start threads of their own.
+     *
+     * @return the pool
+     */
+    public static synchronized ForkJoinPool getComputePool() {
+        if (computePool == null) {
+            computePool = new ForkJoinPool();
+        }
+        return computePool;
+    }
+
+    /**
+     * Queue a job for execution. It will start as soon as a worker is free.
+     *
+     * @param job the job to run
+     * @return the job
+     */
+    public Job submit(Job job) {
+        synchronized (job) {
+            job.scheduler = this;
+            job.queued = System.nanoTime();
+        }
+        synchronized (active) {
+            active.add(job);
+        }
+        executor.execute(job);
+        return job;
+    }
+
+    /**
+     * Cancel all jobs at the given priority, or all jobs if priority < 0
+     *
+     * @param priority priority of the jobs to cancel
+     */
+    public void cancelAll(int priority) {
+        synchronized (active) {
+            Iterator<Job> i = active.iterator();
+            while (i.hasNext()) {
+                Job j = i.next();
+                if (priority < 0 || j.getPriority() == priority) {
+                    j.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a snapshot of the jobs that are queued or running.
+     *
+     * @return list of jobs
+     */
+    public ArrayList<Job> getJobs() {
+        synchronized (active) {
+            return new ArrayList<>(active);
+        }
+    }
+
+    /**
+     * Is there a job of the given priority queued or running? Must be called
+     * with active locked.
+     */
+    private boolean busy(int priority) {
+        Iterator<Job> i = active.iterator();
+        while (i.hasNext()) {
+            if (i.next().getPriority() == priority) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Run an action once there are no jobs of the given priority queued or
+     * running. If there are none already, the action is run immediately on
+     * the calling thread; otherwise it is run on the worker that finishes the
+     * last such job.
+     *
+     * @param priority the priority of the jobs to wait for
+     * @param r the action to run
+     */
+    public void whenIdle(int priority, Runnable r) {
+        synchronized (active) {
+            if (busy(priority)) {
+                whenIdle.add(new IdleAction(priority, r));
+                return;
+            }
+        }
+        r.run();
+    }
+
+    private void finished(Job job) {
+        ArrayList<Runnable> toRun = new ArrayList<>();
+        synchronized (active) {
+            active.remove(job);
+            Iterator<IdleAction> i = whenIdle.iterator();
+            while (i.hasNext()) {
+                IdleAction ia = i.next();
+                if (!busy(ia.priority)) {
+                    toRun.add(ia.action);
+                    i.remove();
+                }
+            }
+        }
+        Iterator<Runnable> i = toRun.iterator();
+        while (i.hasNext()) {
+            i.next().run();
+        }
+    }
+
+    /**
+     * Stop accepting jobs, and cancel everything queued or running.
+     */
+    public void shutdown() {
+        cancelAll(-1);
+        executor.shutdown();
+    }
+}
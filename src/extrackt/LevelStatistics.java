@@ -0,0 +1,202 @@
+package extrackt;
+
+/**
+ * Summary of the levels in an audio stream, small enough to search when
+ * choosing silence thresholds. Built from the peak level of each frame of
+ * about a millisecond (usually from an Envelope, so it costs no extra
+ * reading), it records a histogram of frame levels, and for each candidate
+ * level, a histogram of the lengths of the runs of frames no louder than
+ * that level. From these, the number of silences any level and duration
+ * would find can be computed without looking at the audio again.
+ *
+ * Levels are 1dB apart (closer at the lowest levels), and durations a
+ * quarter of an octave apart. Runs at the very start or end of the stream
+ * are not counted, as they are not gaps between tracks.
+ *
+ * Counting is done in one pass. After each frame, runs are open at all
+ * levels at or above the frame's level, so only the levels between the
+ * previous frame's level and this one's need any work.
+ *
+ * @author Crawford Currie
+ */
+public class LevelStatistics {
+
+    /** Number of levels, starting from a level of 1 */
+    public static final int LEVELS = 145;
+    private static final int DURATIONS_PER_OCTAVE = 4;
+    // Enough for a day at one frame per millisecond
+    private static final int DURATIONS = 27 * DURATIONS_PER_OCTAVE;
+
+    // Amplitude of each level. Whole amplitudes are 1dB apart from about
+    // 30dB; below that they are 1 apart.
+    private static final int[] AMPLITUDES = new int[LEVELS];
+
+    static {
+        for (int l = 0; l < LEVELS; l++) {
+            AMPLITUDES[l] = Math.max(l + 1, (int) Math.pow(10, l / 20.0));
+        }
+    }
+
+    private final float frameLength; // seconds
+    private final long[] levelHistogram; // [level], LEVELS for too loud
+    private final int[][] runs; // [level][duration bin]
+    private final int[] edges; // shortest run in each duration bin, frames
+    private final int[] runStart; // [level], frame
+    private int open; // runs are open at all levels >= open
+    private int frames;
+
+    /**
+     * @param frameLength length of each frame, seconds
+     */
+    public LevelStatistics(float frameLength) {
+        this.frameLength = frameLength;
+        levelHistogram = new long[LEVELS + 1];
+        runs = new int[LEVELS][DURATIONS];
+        edges = new int[DURATIONS];
+        for (int d = 0; d < DURATIONS; d++) {
+            int e = (int) Math.round(Math.pow(2, (double) d / DURATIONS_PER_OCTAVE));
+            edges[d] = (d > 0 && e <= edges[d - 1]) ? edges[d - 1] + 1 : e;
+        }
+        runStart = new int[LEVELS];
+        open = LEVELS;
+        frames = 0;
+    }
+
+    /**
+     * Summarise an envelope
+     *
+     * @param e the envelope
+     * @return the statistics of the envelope's frame peaks
+     */
+    public static LevelStatistics of(Envelope e) {
+        LevelStatistics s = new LevelStatistics(e.getSamplesPerFrame() / e.getSampleRate());
+        int nChannels = e.getNumChannels();
+        for (int f = 0; f < e.getFrames(); f++) {
+            float m = 0;
+            for (int c = 0; c < nChannels; c++) {
+                float p = e.getPeak(f, c);
+                if (p > m) {
+                    m = p;
+                }
+            }
+            s.add(m);
+        }
+        return s;
+    }
+
+    /**
+     * Get the amplitude of a level
+     *
+     * @param l level number, 0..LEVELS-1
+     * @return the amplitude, as used by Silences.Threshold
+     */
+    public static int getLevel(int l) {
+        return AMPLITUDES[l];
+    }
+
+    // Lowest level at which a frame with this peak is silent, or LEVELS if
+    // there is none
+    private static int levelOf(float peak) {
+        int lo = 0, hi = LEVELS;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (AMPLITUDES[mid] < peak) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Duration bin of a run of n frames
+    private int durationOf(int n) {
+        int lo = 0, hi = DURATIONS - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (edges[mid] <= n) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Add a frame
+     *
+     * @param peak peak absolute level over all channels in the frame
+     */
+    public void add(float peak) {
+        int l = levelOf(peak);
+        levelHistogram[l]++;
+        // Runs end at levels below this frame
+        for (int i = open; i < l; i++) {
+            if (runStart[i] > 0) {
+                runs[i][durationOf(frames - runStart[i])]++;
+            }
+        }
+        // and start at levels from this frame up to the lowest already open
+        for (int i = l; i < open; i++) {
+            runStart[i] = frames;
+        }
+        open = l;
+        frames++;
+    }
+
+    /**
+     * @return length of each frame, seconds
+     */
+    public float getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * @return number of frames added
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @param l level number
+     * @return number of frames whose peak was above level l-1 and no more
+     * than level l
+     */
+    public long getFramesAtLevel(int l) {
+        return levelHistogram[l];
+    }
+
+    /**
+     * @return number of duration bins
+     */
+    public int getDurations() {
+        return DURATIONS;
+    }
+
+    /**
+     * @param d duration bin
+     * @return minimum duration of a silence counted in bin d, seconds
+     */
+    public float getDuration(int d) {
+        return edges[d] * frameLength;
+    }
+
+    /**
+     * Count the silences at each duration for a level
+     *
+     * @param l level number
+     * @return array, indexed by duration bin, of the number of silences no
+     * louder than the level and at least that long
+     */
+    public int[] getSilenceCounts(int l) {
+        int[] counts = new int[DURATIONS];
+        int sum = 0;
+        for (int d = DURATIONS - 1; d >= 0; d--) {
+            sum += runs[l][d];
+            counts[d] = sum;
+        }
+        return counts;
+    }
+}
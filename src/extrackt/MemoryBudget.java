@@ -0,0 +1,301 @@
+package extrackt;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A single memory budget shared by all the caches and large scratch buffers
+ * in the application. The limit is set by the system property
+ * extrackt.memory (e.g. -Dextrackt.memory=256m) and defaults to half the
+ * maximum heap, so several processes can share a machine by each being given
+ * a modest budget.
+ *
+ * Caches register as Clients, and report the bytes they hold through
+ * adjust(). When the budget is exceeded, clients are asked to release memory,
+ * the cheapest to rebuild and least recently used first. Scratch buffers are
+ * not evictable; they are taken with grant() and given back with
+ * giveBack().
+ *
+ * Clients must not call into the budget while it is calling them, other than
+ * through adjust(); the budget never holds its own lock while calling a
+ * client.
+ *
+ * @author Crawford Currie
+ */
+public class MemoryBudget {
+
+    /**
+     * Something that holds memory on the budget and can release it on demand
+     */
+    public interface Client {
+
+        /**
+         * @return relative cost of rebuilding the data held, per byte. Cheap
+         * data is evicted first.
+         */
+        public float getCost();
+
+        /**
+         * Release memory, least valuable data first. The client must call
+         * adjust() to report what it released.
+         *
+         * @param bytes number of bytes the budget would like back
+         */
+        public void release(long bytes);
+    }
+
+    // Accounting for a registered client
+    private static class Account {
+
+        final String name;
+        long bytes;
+        long lastUse; // System.currentTimeMillis()
+
+        Account(String n) {
+            name = n;
+            bytes = 0;
+            lastUse = System.currentTimeMillis();
+        }
+    }
+
+    private static MemoryBudget instance = null;
+
+    private final long limit;
+    private long used; // by clients and scratch
+    private long scratch; // by scratch buffers alone
+    private final IdentityHashMap<Client, Account> clients;
+
+    /**
+     * @param limit budget, in bytes
+     */
+    public MemoryBudget(long limit) {
+        this.limit = limit;
+        used = 0;
+        scratch = 0;
+        clients = new IdentityHashMap<>();
+    }
+
+    /**
+     * Get the application-wide budget
+     *
+     * @return the budget
+     */
+    public static synchronized MemoryBudget get() {
+        if (instance == null) {
+            long lim = Runtime.getRuntime().maxMemory() / 2;
+            String s = System.getProperty("extrackt.memory");
+            if (s != null) {
+                try {
+                    lim = parseSize(s);
+                } catch (NumberFormatException nfe) {
+                    System.err.println("Bad extrackt.memory " + s + ", using " + lim);
+                }
+            }
+            instance = new MemoryBudget(lim);
+        }
+        return instance;
+    }
+
+    /**
+     * Parse a size such as 512k, 256m or 1g
+     *
+     * @param s the size string
+     * @return size in bytes
+     * @throws NumberFormatException if the string can't be parsed
+     */
+    public static long parseSize(String s) throws NumberFormatException {
+        s = s.trim().toLowerCase();
+        long mult = 1;
+        if (s.endsWith("k")) {
+            mult = 1024;
+        } else if (s.endsWith("m")) {
+            mult = 1024 * 1024;
+        } else if (s.endsWith("g")) {
+            mult = 1024 * 1024 * 1024;
+        }
+        if (mult > 1) {
+            s = s.substring(0, s.length() - 1);
+        }
+        return Long.parseLong(s) * mult;
+    }
+
+    /**
+     * Approximate heap used by a float[rows][cols], as used for sample
+     * buffers
+     *
+     * @param rows number of rows (samples)
+     * @param cols number of columns (channels)
+     * @return bytes
+     */
+    public static long floatRows(long rows, int cols) {
+        // Each row is an array object (header + data) plus a reference to it
+        return rows * (16 + 4 * cols + 8);
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return bytes currently charged to the budget
+     */
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * @return fraction of the budget in use; may exceed 1 if scratch
+     * buffers had to overcommit
+     */
+    public synchronized float getOccupancy() {
+        return (float) used / limit;
+    }
+
+    /**
+     * Register a client. It starts holding nothing.
+     *
+     * @param c the client
+     * @param name name for reporting
+     */
+    public synchronized void register(Client c, String name) {
+        if (!clients.containsKey(c)) {
+            clients.put(c, new Account(name));
+        }
+    }
+
+    /**
+     * Unregister a client, freeing everything charged to it
+     *
+     * @param c the client
+     */
+    public synchronized void unregister(Client c) {
+        Account a = clients.remove(c);
+        if (a != null) {
+            used -= a.bytes;
+        }
+    }
+
+    /**
+     * Record a change in the memory held by a client, and mark it as
+     * recently used. Does not evict; call trim() (without holding any locks
+     * a client may need) after growing.
+     *
+     * @param c the client
+     * @param delta change in bytes held; may be 0 to just record a use
+     */
+    public synchronized void adjust(Client c, long delta) {
+        Account a = clients.get(c);
+        if (a == null) {
+            throw new IllegalArgumentException("Client not registered");
+        }
+        a.bytes += delta;
+        used += delta;
+        a.lastUse = System.currentTimeMillis();
+    }
+
+    // Pick the client with the least valuable memory, ignoring those
+    // already asked. Value is cost, discounted by time since last use.
+    private synchronized Client victim(ArrayList<Client> asked) {
+        long now = System.currentTimeMillis();
+        Client best = null;
+        double bestValue = Double.MAX_VALUE;
+        Iterator<Map.Entry<Client, Account>> i = clients.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Client, Account> e = i.next();
+            Account a = e.getValue();
+            if (a.bytes <= 0 || asked.contains(e.getKey())) {
+                continue;
+            }
+            double value = e.getKey().getCost() / (1 + (now - a.lastUse) / 1000.0);
+            if (value < bestValue) {
+                bestValue = value;
+                best = e.getKey();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Evict from clients until the budget is met, or nothing more can be
+     * released
+     */
+    public void trim() {
+        trim(0);
+    }
+
+    // Evict until there are at least 'room' bytes free
+    private void trim(long room) {
+        ArrayList<Client> asked = new ArrayList<>();
+        while (true) {
+            long excess;
+            Client c;
+            synchronized (this) {
+                excess = used + room - limit;
+                if (excess <= 0) {
+                    return;
+                }
+                c = victim(asked);
+            }
+            if (c == null) {
+                return;
+            }
+            asked.add(c);
+            c.release(excess);
+        }
+    }
+
+    /**
+     * Take memory for a scratch buffer. Caches are evicted to make room if
+     * needed. If even then the full request can't be met, as much as is free
+     * is granted, rounded down to a whole number of minimums (so the minimum
+     * can be used as a block size), but never less than the minimum; the
+     * budget is allowed to overcommit rather than fail.
+     *
+     * @param requested bytes wanted
+     * @param minimum smallest useful number of bytes
+     * @return bytes granted. Must be given back with giveBack().
+     */
+    public long grant(long requested, long minimum) {
+        trim(requested);
+        synchronized (this) {
+            long granted = requested;
+            if (granted > limit - used) {
+                granted = Math.max((limit - used) / minimum, 1) * minimum;
+            }
+            used += granted;
+            scratch += granted;
+            return granted;
+        }
+    }
+
+    /**
+     * Give back memory taken with grant()
+     *
+     * @param bytes the number of bytes that were granted
+     */
+    public synchronized void giveBack(long bytes) {
+        used -= bytes;
+        scratch -= bytes;
+    }
+
+    /**
+     * @return a report on occupancy, one line per client
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Memory budget ").append(used >> 10).append("k of ")
+                .append(limit >> 10).append("k (")
+                .append((int) (100 * getOccupancy())).append("%)\n");
+        sb.append("\tscratch ").append(scratch >> 10).append("k\n");
+        Iterator<Account> i = clients.values().iterator();
+        while (i.hasNext()) {
+            Account a = i.next();
+            sb.append("\t").append(a.name).append(" ")
+                    .append(a.bytes >> 10).append("k\n");
+        }
+        return sb.toString();
+    }
+}
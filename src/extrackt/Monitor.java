@@ -0,0 +1,70 @@
+package extrackt;
+
+/**
+ * Contract between a long-running operation and whoever started it. The
+ * operation polls isCancelled() at convenient boundaries (e.g. after each
+ * block of samples) and stops as soon as it sees true; it reports how far it
+ * has got through progress().
+ *
+ * @author Crawford Currie
+ */
+public interface Monitor {
+
+    /**
+     * @return true if the operation should stop as soon as possible
+     */
+    public boolean isCancelled();
+
+    /**
+     * Report progress.
+     *
+     * @param done units of work completed (e.g. samples read)
+     * @param total units of work expected, or -1 if not known
+     */
+    public void progress(long done, long total);
+
+    /**
+     * Simple monitor that can be cancelled from another thread, and that
+     * remembers the last progress reported.
+     */
+    public static class Token implements Monitor {
+
+        private volatile boolean cancelled;
+        private volatile long done, total;
+
+        public Token() {
+            cancelled = false;
+            done = 0;
+            total = -1;
+        }
+
+        /**
+         * Ask the monitored operation to stop
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public void progress(long d, long t) {
+            done = d;
+            total = t;
+        }
+
+        /**
+         * @return fraction of the work completed, 0..1, or -1 if not known
+         */
+        public float getProgress() {
+            long t = total;
+            if (t <= 0) {
+                return -1;
+            }
+            return (float) done / t;
+        }
+    }
+}
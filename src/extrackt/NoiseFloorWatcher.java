@@ -0,0 +1,290 @@
+package extrackt;
+
+import java.io.IOException;
+
+/**
+ * Watcher that finds silences relative to the noise floor of the recording,
+ * rather than to a fixed threshold, so one configuration serves recordings
+ * made at different levels. Works in a single pass, with no pre-read.
+ *
+ * The stream is divided into 10ms frames, and the peak amplitude of each
+ * frame is counted into a histogram of levels in half-dB bins. Counts decay
+ * exponentially, so the histogram describes roughly the last WINDOW seconds.
+ * The noise floor is taken as a low percentile of the histogram, and a frame
+ * is silent if its peak is no more than a margin above the floor. A run of
+ * silent frames longer than the minimum duration is reported to the
+ * listener, with the highest threshold used during the run and the maximum
+ * level seen as data, just as SilenceWatcher does.
+ *
+ * A low percentile is only the noise floor if some of the frames are quiet;
+ * during a long passage of programme it is the level of the programme. So
+ * the estimate is only trusted once the histogram covers WINDOW seconds and
+ * the percentile stands at least the margin below the median, showing there
+ * are quiet frames distinct from the rest. Until then the last trusted floor
+ * is used. Recordings nearly always start with programme, so the frames at
+ * the start are held back until the floor is first trusted, and then
+ * classified. If none has been trusted after MAX_HOLD seconds, the frames
+ * held back are taken to be programme. Memory use is fixed, however long
+ * the stream. Silences are found to the nearest frame.
+ *
+ * The input stream is passed on to the consumer unmodified.
+ *
+ * @author Crawford Currie
+ */
+public class NoiseFloorWatcher extends SampleCopier {
+
+    private static final float FRAME_LENGTH = 0.01f; // 10ms
+    // Period over which the histogram decays by a factor e, seconds
+    private static final float WINDOW = 10;
+    // Fraction of frames assumed to be no louder than the noise floor
+    private static final double PERCENTILE = 0.1;
+    // Frames the histogram must cover before the floor is trusted
+    private static final int COVER_FRAMES = (int) (WINDOW / FRAME_LENGTH);
+    // Most frames held back waiting for the floor to be trusted
+    private static final int MAX_HOLD = (int) (60 / FRAME_LENGTH);
+    private static final int BINS_PER_DB = 2;
+    // Enough for 24 bit samples
+    private static final int BINS = 145 * BINS_PER_DB;
+
+    private final AudioRangeListener listener;
+    private final int frameSize; // samples
+    private final long minSamples;
+    private final float margin; // ratio
+    private final int marginBins; // histogram bins
+    private final double growth; // of the weight of each new frame
+    private final double[] histogram;
+    private double weight, total;
+    private long frames; // number counted into the histogram
+    private float floor; // last trusted noise floor, or -1 if none yet
+
+    // The frame being accumulated
+    private float framePeak;
+    private int frameFill;
+    private long frameStart; // sample number
+
+    // Frame peaks held back until the floor is trusted, from sample
+    // warmStart; nWarm is -1 once the floor has been trusted
+    private final float[] warmup;
+    private int nWarm;
+    private long warmStart;
+
+    // The open silence
+    private long runStart, runEnd; // sample numbers, runStart -1 if none
+    private float runLevel, runMax;
+
+    private long samplesRead;
+
+    /**
+     * @param in input stream
+     * @param l listener to call when a silence is detected. The data is an
+     * int[] of the threshold and the maximum level seen in the silence.
+     * @param marginDb how far above the noise floor a silent frame may be,
+     * in dB
+     * @param duration minimum length of a silence, seconds
+     */
+    public NoiseFloorWatcher(SampleSource in, AudioRangeListener l,
+            float marginDb, float duration) {
+        super(in);
+        listener = l;
+        frameSize = Math.max(1, Math.round(in.getSampleRate() * FRAME_LENGTH));
+        minSamples = (long) (duration * in.getSampleRate());
+        margin = (float) Math.pow(10, marginDb / 20);
+        marginBins = Math.max(1, Math.round(marginDb * BINS_PER_DB));
+        growth = Math.exp(FRAME_LENGTH / WINDOW);
+        histogram = new double[BINS];
+        weight = 1;
+        total = 0;
+        frames = 0;
+        floor = -1;
+        framePeak = 0;
+        frameFill = 0;
+        frameStart = 0;
+        warmup = new float[MAX_HOLD];
+        nWarm = 0;
+        warmStart = 0;
+        runStart = -1;
+        samplesRead = 0;
+    }
+
+    // Histogram bin for a peak amplitude
+    private static int bin(float peak) {
+        if (peak < 1) {
+            return 0;
+        }
+        int b = (int) (BINS_PER_DB * 20 * Math.log10(peak));
+        return b < BINS ? b : BINS - 1;
+    }
+
+    // Count a frame into the histogram. Rather than decaying every bin for
+    // each frame, each new frame is given more weight than the last, and the
+    // whole histogram is rescaled once in a long while.
+    private void count(float peak) {
+        histogram[bin(peak)] += weight;
+        total += weight;
+        frames++;
+        weight *= growth;
+        if (weight > 1e100) {
+            for (int i = 0; i < BINS; i++) {
+                histogram[i] /= weight;
+            }
+            total /= weight;
+            weight = 1;
+        }
+    }
+
+    // Bin holding a fraction of the weight of the histogram
+    private int percentile(double fraction) {
+        double want = fraction * total;
+        double sum = 0;
+        int b = 0;
+        while (b < BINS - 1 && (sum += histogram[b]) < want) {
+            b++;
+        }
+        return b;
+    }
+
+    // Take the estimate as the floor if it can be trusted. At the end of
+    // the stream a short recording is trusted without covering WINDOW.
+    private void estimate(boolean end) {
+        if (frames < COVER_FRAMES && !end) {
+            return;
+        }
+        int low = percentile(PERCENTILE);
+        if (percentile(0.5) - low >= marginBins) {
+            // Top of the bin
+            floor = (float) Math.pow(10, (low + 1) / (20.0 * BINS_PER_DB));
+        }
+    }
+
+    /**
+     * @return the current estimate of the noise floor, as an amplitude, or
+     * -1 if there isn't one yet
+     */
+    public float getNoiseFloor() {
+        return floor;
+    }
+
+    // Threshold for a frame; nothing is silent until there is a floor
+    private float threshold() {
+        return floor < 0 ? -1 : floor * margin;
+    }
+
+    // A frame of n samples starting at sample start is silent or loud
+    private boolean classify(long start, int n, float peak, float threshold) {
+        if (peak <= threshold) {
+            if (runStart < 0) {
+                runStart = start;
+                runLevel = 0;
+                runMax = 0;
+            }
+            runEnd = start + n;
+            if (threshold > runLevel) {
+                runLevel = threshold;
+            }
+            if (peak > runMax) {
+                runMax = peak;
+            }
+            return true;
+        }
+        return endRun();
+    }
+
+    // Report the open silence, if it's long enough
+    private boolean endRun() {
+        boolean more = true;
+        if (runStart >= 0 && runEnd - runStart > minSamples) {
+            float rate = source.getSampleRate();
+            int[] data = new int[2];
+            data[0] = (int) Math.ceil(runLevel);
+            data[1] = (int) runMax;
+            more = listener.rangeEvent(runStart / rate, runEnd / rate, data);
+        }
+        runStart = -1;
+        return more;
+    }
+
+    // Classify the frames held back, with the floor if there is one, or as
+    // programme if not
+    private boolean endWarmup() {
+        float threshold = threshold();
+        for (int i = 0; i < nWarm; i++) {
+            long start = warmStart + i * (long) frameSize;
+            int n = (int) Math.min(frameSize, samplesRead - start);
+            if (!classify(start, n, warmup[i], threshold)) {
+                return false;
+            }
+        }
+        warmStart += nWarm * (long) frameSize;
+        nWarm = floor < 0 ? 0 : -1;
+        return true;
+    }
+
+    // The current frame is complete (or the stream has ended)
+    private boolean endFrame() {
+        count(framePeak);
+        estimate(false);
+        boolean more = true;
+        if (nWarm >= 0) {
+            warmup[nWarm++] = framePeak;
+            if (floor >= 0 || nWarm == MAX_HOLD) {
+                more = endWarmup();
+            }
+        } else {
+            more = classify(frameStart, frameFill, framePeak, threshold());
+        }
+        frameStart += frameFill;
+        framePeak = 0;
+        frameFill = 0;
+        return more;
+    }
+
+    @Override
+    public int readSamples(float[][] buff, int offset, int length) throws IOException {
+        if (isCancelled()) {
+            return -1;
+        }
+        int read = source.readSamples(buff, offset, length);
+        int nChannels = source.getNumChannels();
+
+        int i = 0;
+        while (i < read) {
+            int n = Math.min(frameSize - frameFill, read - i);
+            float m = framePeak;
+            for (int s = offset + i; s < offset + i + n; s++) {
+                float[] frame = buff[s];
+                for (int c = 0; c < nChannels; c++) {
+                    float v = frame[c];
+                    if (v < 0) {
+                        v = -v;
+                    }
+                    if (v > m) {
+                        m = v;
+                    }
+                }
+            }
+            framePeak = m;
+            frameFill += n;
+            samplesRead += n;
+            i += n;
+            if (frameFill == frameSize && !endFrame()) {
+                return -1;
+            }
+        }
+
+        if (read < length) {
+            if (frameFill > 0 && !endFrame()) {
+                return -1;
+            }
+            if (nWarm > 0) {
+                estimate(true);
+                if (!endWarmup()) {
+                    return -1;
+                }
+            }
+            if (!endRun()) {
+                return -1;
+            }
+        }
+        return read;
+    }
+}
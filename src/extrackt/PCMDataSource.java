@@ -74,19 +74,20 @@ public class PCMDataSource extends AudioInputStream {
 
     @Override
     public void mark(int readLimit) {
-        source.mark(readLimit);
+        // Through AudioInputStream, so its frame position is marked too
+        super.mark(readLimit);
     }
 
     /**
      * Mark the input stream for a subsequent reset()
      */
     public void mark() {
-        source.mark(Integer.MAX_VALUE);
+        mark(Integer.MAX_VALUE);
     }
 
     @Override
     public void reset() throws IOException {
-        source.reset();
+        super.reset();
     }
 
     /**
@@ -14,18 +14,24 @@ import javax.sound.sampled.SourceDataLine;
  * @author crawford
  */
 public class Player extends Sink {
-    
-    private SourceDataLine out;
-    
+
+    // Length of audio buffered in the output line, seconds. Each write
+    // hands over half of this, so the line never runs dry.
+    private static final float BUFFER_PERIOD = 0.2f;
+
+    private volatile SourceDataLine out;
+    private volatile int chunk; // bytes per write
+
     public Player() {
         out = null;
+        chunk = 0;
     }
 
     /**
      * Play the content of the given stream
      * @param ai Stream to play
      * @param ros Runnable to execute when the stream terminates
-     * @throws LineUnavailableException 
+     * @throws LineUnavailableException
      */
     @Override
     public void play(PCMDataSource ai, Runnable ros) throws LineUnavailableException {
@@ -35,40 +41,54 @@ public class Player extends Sink {
                 out.close();
             // Format changed, need a new line
             DataLine.Info info = new DataLine.Info(SourceDataLine.class, af);
-            out = (SourceDataLine)AudioSystem.getLine(info);
-            out.open(af);
-            out.start();
+            SourceDataLine line = (SourceDataLine)AudioSystem.getLine(info);
+            int frameSize = af.getFrameSize();
+            int frames = (int)(af.getFrameRate() * BUFFER_PERIOD);
+            line.open(af, frames * frameSize);
+            // The line may not give us the size we asked for
+            chunk = (line.getBufferSize() / 2 / frameSize) * frameSize;
+            if (chunk <= 0)
+                chunk = frameSize;
+            line.start();
+            out = line;
         }
         super.play(ai, ros);
     }
-    
+
     /**
-     * Run the thread
+     * Stop playing, discarding any audio still queued in the line
+     */
+    @Override
+    public void stopPlaying() {
+        super.stopPlaying();
+        SourceDataLine line = out;
+        if (line != null)
+            line.flush();
+    }
+
+    /**
+     * Run the thread. Sleeps while there is nothing to play; otherwise reads
+     * a chunk and hands it to the line, which blocks until there is room.
      */
     @Override
     public void run() {
-        while (true) {
-            yield();
-            if (in == null || out == null || stopped)
-                continue;
-            int canSend = 0;
-            while (!stopped) {
-                yield();
-                canSend = out.available();
-                if (canSend > 0)
-                    break;
+        while (!interrupted()) {
+            try {
+                waitForStream();
+            } catch (InterruptedException ie) {
+                break;
             }
-            
-            if (stopped)
-                continue;
-            
-            int nBytesRead = swallow(canSend);
+            SourceDataLine line = out;
+            int nBytesRead = swallow(chunk);
 
-            if (nBytesRead == -1) {
-                stopPlaying();
+            if (nBytesRead < 0) {
+                // End of stream; let the line play out what it has
+                super.stopPlaying();
                 continue;
             }
-            out.write(buffer, 0, nBytesRead);
+            if (nBytesRead > 0)
+                line.write(buffer, 0, nBytesRead);
         }
+        freeBuffer();
     }
 }
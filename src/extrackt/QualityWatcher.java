@@ -0,0 +1,282 @@
+package extrackt;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * Watcher that looks for faults in the capture of a sample stream, and tells
+ * a listener about each one it sees. It can be chained with other watchers
+ * such as SilenceWatcher, so quality control costs no extra reading.
+ * Three kinds of fault are detected:
+ * <ul>
+ * <li>CLIP - a run of samples at full scale on one channel
+ * <li>DROPOUT - a run of samples that are exactly zero on all channels, as
+ * left by encoder glitches and gaps in capture. Real silence always has some
+ * noise in it.
+ * <li>REPEAT - a block of samples that exactly repeats an earlier block, as
+ * left by a capture buffer being delivered twice. The stream is hashed in
+ * blocks of BLOCK_SIZE samples, and each hash is compared with the hashes of
+ * recent blocks, so repeats are found when the distance between the copies
+ * is a multiple of BLOCK_SIZE, as it is for buffers of the usual sizes.
+ * Blocks with no variation are left to DROPOUT. A synthetic signal with an
+ * exact period may be reported as repeating.
+ * </ul>
+ * The data passed to the listener is a Defect. Adjacent blocks of a fault
+ * are reported as a single range.
+ *
+ * The input stream is passed on to the consumer unmodified.
+ *
+ * @author Crawford Currie
+ */
+public class QualityWatcher extends SampleCopier {
+
+    public static final int CLIP = 0;
+    public static final int DROPOUT = 1;
+    public static final int REPEAT = 2;
+    private static final String[] NAMES = {"CLIP", "DROPOUT", "REPEAT"};
+
+    // Size of the blocks hashed to find repeats, in samples
+    private static final int BLOCK_SIZE = 64;
+    // How far back to look for repeats, in seconds
+    private static final float HISTORY = 2;
+    // Shortest run of clipped samples reported
+    private static final int MIN_CLIP = 3;
+    // Shortest run of zeros reported, in seconds
+    private static final float MIN_DROPOUT = 0.005f;
+
+    /**
+     * A fault, passed as the data to the listener
+     */
+    public static class Defect {
+
+        /** CLIP, DROPOUT or REPEAT */
+        public final int type;
+        /** Channel clipped, or -1 for all channels */
+        public final int channel;
+        /** For REPEAT, start of the block repeated, seconds. Otherwise -1. */
+        public final float original;
+
+        Defect(int t, int c, float o) {
+            type = t;
+            channel = c;
+            original = o;
+        }
+
+        @Override
+        public String toString() {
+            String s = NAMES[type];
+            if (channel >= 0) {
+                s += " channel " + channel;
+            }
+            if (original >= 0) {
+                s += " of " + original;
+            }
+            return s;
+        }
+    }
+
+    private final AudioRangeListener listener;
+    private final float fullScale;
+    private final long minDropout; // samples
+    private long samplesRead;
+
+    // Open runs; start is -1 when no run is open
+    private final long[] clipStart; // per channel
+    private final int[] clipLength;
+    private long zeroStart;
+    private long zeroLength;
+    private long repeatStart, repeatEnd, repeatLag;
+
+    // Hashing of the current block
+    private long hash;
+    private int blockFill;
+    private boolean blockVaries;
+    private float blockFirst;
+    private long blockNumber;
+    // Most recent block with each hash
+    private final HashMap<Long, Long> seen;
+    private final long[] history; // hashes of recent blocks, a ring
+    private final boolean[] historyValid;
+
+    /**
+     * @param in input stream
+     * @param l listener to call when a fault is found. The data is a Defect.
+     * @param fullScale largest absolute sample value, e.g. 32767 for 16 bit
+     * samples
+     */
+    public QualityWatcher(SampleSource in, AudioRangeListener l, float fullScale) {
+        super(in);
+        listener = l;
+        this.fullScale = fullScale;
+        minDropout = (long) (MIN_DROPOUT * in.getSampleRate());
+        samplesRead = 0;
+        int nChannels = in.getNumChannels();
+        clipStart = new long[nChannels];
+        clipLength = new int[nChannels];
+        for (int c = 0; c < nChannels; c++) {
+            clipStart[c] = -1;
+        }
+        zeroStart = -1;
+        repeatStart = -1;
+        newBlock();
+        blockNumber = 0;
+        int blocks = Math.max(1, (int) (HISTORY * in.getSampleRate() / BLOCK_SIZE));
+        seen = new HashMap<>(blocks * 2);
+        history = new long[blocks];
+        historyValid = new boolean[blocks];
+    }
+
+    /**
+     * Get the name of a type of fault
+     *
+     * @param type CLIP, DROPOUT or REPEAT
+     * @return the name
+     */
+    public static String getName(int type) {
+        return NAMES[type];
+    }
+
+    private boolean report(long start, long end, Defect d) {
+        float rate = source.getSampleRate();
+        return listener.rangeEvent(start / rate, end / rate, d);
+    }
+
+    private void newBlock() {
+        hash = 0xcbf29ce484222325L; // FNV-1a
+        blockFill = 0;
+        blockVaries = false;
+    }
+
+    private boolean endClip(int c) {
+        boolean more = true;
+        if (clipStart[c] >= 0 && clipLength[c] >= MIN_CLIP) {
+            more = report(clipStart[c], clipStart[c] + clipLength[c],
+                    new Defect(CLIP, c, -1));
+        }
+        clipStart[c] = -1;
+        return more;
+    }
+
+    private boolean endZeros() {
+        boolean more = true;
+        if (zeroStart >= 0 && zeroLength >= minDropout) {
+            more = report(zeroStart, zeroStart + zeroLength,
+                    new Defect(DROPOUT, -1, -1));
+        }
+        zeroStart = -1;
+        return more;
+    }
+
+    private boolean endRepeat() {
+        boolean more = true;
+        if (repeatStart >= 0) {
+            more = report(repeatStart, repeatEnd, new Defect(REPEAT, -1,
+                    (repeatStart - repeatLag) / source.getSampleRate()));
+        }
+        repeatStart = -1;
+        return more;
+    }
+
+    // A block has been hashed. Look for an earlier block with the same
+    // hash, and remember this one.
+    private boolean endBlock() {
+        boolean more = true;
+        long start = blockNumber * BLOCK_SIZE;
+        if (blockVaries) {
+            Long earlier = seen.get(hash);
+            if (earlier != null) {
+                long lag = (blockNumber - earlier) * BLOCK_SIZE;
+                if (repeatStart >= 0 && (repeatLag != lag || repeatEnd != start)) {
+                    more = endRepeat();
+                }
+                if (repeatStart < 0) {
+                    repeatStart = start;
+                    repeatLag = lag;
+                }
+                repeatEnd = start + BLOCK_SIZE;
+            } else if (repeatStart >= 0) {
+                more = endRepeat();
+            }
+            int slot = (int) (blockNumber % history.length);
+            if (historyValid[slot]) {
+                // Forget the block that has dropped out of the history
+                Long old = seen.get(history[slot]);
+                if (old != null && old == blockNumber - history.length) {
+                    seen.remove(history[slot]);
+                }
+            }
+            history[slot] = hash;
+            historyValid[slot] = true;
+            seen.put(hash, blockNumber);
+        } else {
+            if (repeatStart >= 0) {
+                more = endRepeat();
+            }
+            historyValid[(int) (blockNumber % history.length)] = false;
+        }
+        blockNumber++;
+        newBlock();
+        return more;
+    }
+
+    @Override
+    public int readSamples(float[][] buff, int offset, int length) throws IOException {
+        if (isCancelled()) {
+            return -1;
+        }
+        int read = source.readSamples(buff, offset, length);
+        int nChannels = source.getNumChannels();
+
+        for (int i = offset; i < offset + read; i++) {
+            float[] frame = buff[i];
+            long pos = samplesRead++;
+            boolean zero = true;
+            for (int c = 0; c < nChannels; c++) {
+                float v = frame[c];
+                if (v != 0) {
+                    zero = false;
+                }
+                if (v >= fullScale || -v >= fullScale) {
+                    if (clipStart[c] < 0) {
+                        clipStart[c] = pos;
+                        clipLength[c] = 0;
+                    }
+                    clipLength[c]++;
+                } else if (clipStart[c] >= 0 && !endClip(c)) {
+                    return -1;
+                }
+                int bits = Float.floatToIntBits(v);
+                hash = (hash ^ bits) * 0x100000001b3L;
+                if (blockFill == 0 && c == 0) {
+                    blockFirst = v;
+                } else if (v != blockFirst) {
+                    blockVaries = true;
+                }
+            }
+            if (zero) {
+                if (zeroStart < 0) {
+                    zeroStart = pos;
+                    zeroLength = 0;
+                }
+                zeroLength++;
+            } else if (zeroStart >= 0 && !endZeros()) {
+                return -1;
+            }
+            if (++blockFill == BLOCK_SIZE && !endBlock()) {
+                return -1;
+            }
+        }
+
+        if (read < length) {
+            for (int c = 0; c < nChannels; c++) {
+                if (!endClip(c)) {
+                    return -1;
+                }
+            }
+            if (!endZeros() || !endRepeat()) {
+                return -1;
+            }
+        }
+        return read;
+    }
+}
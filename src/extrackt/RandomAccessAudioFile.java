@@ -61,8 +61,11 @@ public class RandomAccessAudioFile {
                 return -1;
             }
             read++;
-            raf.seek(offset + read);
-            return raf.read();
+            // Streams share the file, and may be read from different threads
+            synchronized (raf) {
+                raf.seek(offset + read);
+                return raf.read();
+            }
         }
 
         @Override
@@ -70,11 +73,14 @@ public class RandomAccessAudioFile {
             if (length - read <= 0) {
                 return -1;
             }
-            raf.seek(offset + read);
             if (length - read - len < 0) {
                 len = length - read;
             }
-            int r = raf.read(b, off, len);
+            int r;
+            synchronized (raf) {
+                raf.seek(offset + read);
+                r = raf.read(b, off, len);
+            }
             read += r;
             return r;
         }
@@ -117,6 +123,13 @@ public class RandomAccessAudioFile {
         base = fmt.getByteLength() - fmt.getFrameLength() * afmt.getFrameSize();
     }
 
+    /**
+     * @return the format of the audio data
+     */
+    public AudioFormat getFormat() {
+        return afmt;
+    }
+
     /**
      * Get the total time of the audio stream
      *
@@ -178,6 +191,29 @@ public class RandomAccessAudioFile {
         return stream;
     }
 
+    /**
+     * Get a stream that will return samples between two sample offsets. Like
+     * getAudioInputStream(float, float), but exact to the sample.
+     *
+     * @param firstSample offset of the first sample to return
+     * @param nSamples number of samples to return
+     * @return a new audio stream
+     */
+    public AudioInputStream getSampleInputStream(int firstSample, int nSamples) {
+        if (firstSample < 0) {
+            nSamples += firstSample;
+            firstSample = 0;
+        }
+        if (firstSample + nSamples > fmt.getFrameLength()) {
+            nSamples = fmt.getFrameLength() - firstSample;
+        }
+        if (nSamples < 0)
+            throw new Error("Inside-out read");
+        return new AudioInputStream(
+                new RafInputStream(raf, base + samples2bytes(firstSample),
+                        samples2bytes(nSamples)), afmt, nSamples);
+    }
+
     /**
      * Length of the audio data contained in the file, expressed in sample
      * frames.
@@ -6,13 +6,46 @@ import static java.lang.Thread.yield;
 /**
  * Abstract base class for SampleSources that accept another SampleSource as
  * their input. Subclasses must implement readSamples().
+ *
+ * A copier may be given a Monitor. Subclasses should check isCancelled() at
+ * the start of each readSamples() and return -1 if it is set; suckDry()
+ * checks it between blocks and reports progress through it.
  */
 public abstract class SampleCopier implements SampleSource {
 
+    // Smallest buffer suckDry() will work with, in samples
+    private static final int MIN_BUFFER_SIZE = 4096;
+
     protected SampleSource source;
+    protected Monitor monitor;
+    private long expected;
     
     public SampleCopier(SampleSource in) {
         source = in;
+        monitor = null;
+        expected = -1;
+    }
+
+    /**
+     * Set the monitor used to cancel this stream and report progress. The
+     * monitor is passed down to any copiers further up the chain.
+     * @param m the monitor, or null
+     * @param total number of samples the stream is expected to deliver, or
+     * -1 if not known
+     */
+    public void setMonitor(Monitor m, long total) {
+        monitor = m;
+        expected = total;
+        if (source instanceof SampleCopier) {
+            ((SampleCopier) source).setMonitor(m, total);
+        }
+    }
+
+    /**
+     * @return true if the monitor has asked us to stop
+     */
+    protected boolean isCancelled() {
+        return monitor != null && monitor.isCancelled();
     }
 
     @Override
@@ -38,13 +71,36 @@ public abstract class SampleCopier implements SampleSource {
     /**
      * Suck samples from the source stream and throw them away. Allows the
      * stream to be used as a sink without having to allocate a buffer. This is
-     * useful when the subclass is just listening to the stream.
+     * useful when the subclass is just listening to the stream. Stops early
+     * if the monitor is cancelled. The buffer used is charged to the
+     * MemoryBudget, so may be smaller than Sink.EXTERNAL_BUFFER_SIZE samples
+     * if memory is short.
      * @throws IOException 
      */
     public void suckDry() throws IOException {
-        float[][] buffer = new float[Sink.EXTERNAL_BUFFER_SIZE][source.getNumChannels()];
-        while (readSamples(buffer, 0, Sink.EXTERNAL_BUFFER_SIZE) == Sink.EXTERNAL_BUFFER_SIZE) {
-            yield();
+        int channels = source.getNumChannels();
+        MemoryBudget budget = MemoryBudget.get();
+        long perSample = MemoryBudget.floatRows(1, channels);
+        long granted = budget.grant(Sink.EXTERNAL_BUFFER_SIZE * perSample,
+                MIN_BUFFER_SIZE * perSample);
+        try {
+            int size = (int) (granted / perSample);
+            float[][] buffer = new float[size][channels];
+            long done = 0;
+            int read;
+            while (!isCancelled()
+                    && (read = readSamples(buffer, 0, size)) >= 0) {
+                done += read;
+                if (monitor != null) {
+                    monitor.progress(done, expected);
+                }
+                if (read < size) {
+                    break;
+                }
+                yield();
+            }
+        } finally {
+            budget.giveBack(granted);
         }
     }
 
@@ -4,132 +4,299 @@ import java.io.IOException;
 
 /**
  * Filter that scans for silences in a sample stream and removes them. The
- * sample stream is assumed to contain voice, of which at least the first 200ms
- * is silence. WARNING: mark() and reset() cannot be used in consumers
+ * sample stream is assumed to contain voice, of which at least the first 55ms
+ * is silence.
  * Works by framing the input signal into 10ms frames that are then accepted or
  * rejected based on their number of voiced versus unvoiced samples.
- * 
+ *
+ * As frames are classified, an index of the source frames that were kept is
+ * built, so the output can be rewound with mark() and reset(), or moved
+ * anywhere with seek(), without classifying the audio again. Frames already
+ * classified are re-read directly from the index. The source must be able to
+ * reset() to the point where this filter started reading, so should be a
+ * random access stream such as those from RandomAccessAudioFile; the filter
+ * keeps the source's mark at that point, so consumers of the source must not
+ * move it.
+ *
  * @reference 'A New Silence Removal and Endpoint Detection Algorithm for Speech
  * and Speaker Recognition Applications' by IIT, Khragpur
  */
 public class SampleSourceSilentFramesRemoved extends SampleWatcher {
 
     private static final float FRAME_LENGTH = 0.01f; // 10ms
-    // number of frames to sample for mean and standard deviation, 200ms+
-    // assumed to be noise (no signal)
+    // number of frames to sample for mean and standard deviation, assumed to
+    // be noise (no signal)
     private static final int FIRST_FRAMES = (int) (0.055 / FRAME_LENGTH);
 
     private final int nSamplesInFrame;
-    
-    private boolean initialised;
-    private double m, sd; // mean, standard deviation
-    private int unvoiced, voiced; // counts of voiced and unvoiced samples
     private final AudioRangeListener listener;
-    private int totalRead;
-    
+
+    private boolean initialised;
+    // A sample (summed over channels) is voiced if it lies outside lo..hi,
+    // i.e. its Mahalanobis distance from the noise is more than 3
+    private float lo, hi;
+
+    // Source frame number of each kept frame
+    private int[] keptFrames;
+    private int nKept;
+    private long keptLength; // samples in the kept frames
+    private long classified; // number of source frames classified
+    private boolean eof; // all source frames classified
+
+    private final float[][] frame; // current frame
+    private int frameLen; // samples in the current frame
+    private int framePos; // next sample of the current frame to deliver
+    private long srcFrame; // next source frame to be read
+    private int kept; // index in keptFrames of the frame after the current one
+    private long outPos; // output sample position
+    private long markPos;
+
+    // Start of the run of removed frames not yet reported, or -1
+    private long runStart, runEnd; // source samples
+
     /**
      * Creates a new instance
      *
      * @param ai source of audio data
+     * @param arl listener told about each run of frames removed, with its
+     * start and end in the source. May be null.
      */
     public SampleSourceSilentFramesRemoved(SampleSource ai, AudioRangeListener arl) {
         super(ai);
         initialised = false;
         nSamplesInFrame = (int) (source.getSampleRate() * FRAME_LENGTH);
         listener = arl;
-        totalRead = 0;
+        keptFrames = new int[1024];
+        nKept = 0;
+        keptLength = 0;
+        classified = 0;
+        eof = false;
+        frame = new float[nSamplesInFrame][source.getNumChannels()];
+        frameLen = framePos = 0;
+        srcFrame = 0;
+        kept = 0;
+        outPos = markPos = 0;
+        runStart = -1;
+    }
+
+    // Calculate the mean and standard deviation over the first frames, and
+    // leave the source marked at the start
+    private void initialise() throws IOException {
+        source.mark();
+        int firstSamples = FIRST_FRAMES * nSamplesInFrame;
+        float[][] fb = new float[firstSamples][source.getNumChannels()];
+        int reads = source.readSamples(fb, 0, firstSamples);
+        source.reset();
+
+        double m = 0, sd = 0;
+        if (reads > 0) {
+            double sum = 0;
+            for (int i = 0; i < reads; i++) {
+                sum += sum(fb[i]);
+            }
+            m = sum / reads;
+
+            sum = 0;
+            for (int i = 0; i < reads; i++) {
+                double d = sum(fb[i]) - m;
+                sum += d * d;
+            }
+            sd = Math.sqrt(sum / reads);
+        }
+        lo = (float) (m - 3 * sd);
+        hi = (float) (m + 3 * sd);
+        initialised = true;
+    }
+
+    private static float sum(float[] sample) {
+        float s = 0;
+        for (int c = 0; c < sample.length; c++) {
+            s += sample[c];
+        }
+        return s;
+    }
+
+    // Is the current frame voiced? True if more than half of its samples lie
+    // outside lo..hi.
+    private boolean voiced() {
+        int voiced = 0;
+        for (int i = 0; i < frameLen; i++) {
+            float s = sum(frame[i]);
+            voiced += (s < lo || s > hi) ? 1 : 0;
+        }
+        return voiced > frameLen - voiced;
+    }
+
+    // Read the next source frame into the frame buffer
+    private int readFrame() throws IOException {
+        int n = 0;
+        int r;
+        while (n < nSamplesInFrame
+                && (r = source.readSamples(frame, n, nSamplesInFrame - n)) > 0) {
+            n += r;
+        }
+        srcFrame++;
+        return n;
+    }
+
+    // Skip source frames up to (but not including) frame f
+    private void skipTo(long f) throws IOException {
+        while (srcFrame < f) {
+            readFrame();
+        }
+    }
+
+    private void keep(long f) {
+        if (nKept == keptFrames.length) {
+            int[] bigger = new int[nKept * 2];
+            System.arraycopy(keptFrames, 0, bigger, 0, nKept);
+            keptFrames = bigger;
+        }
+        keptFrames[nKept++] = (int) f;
+    }
+
+    // Report the run of removed frames
+    private void endRun() {
+        if (runStart >= 0 && listener != null) {
+            listener.rangeEvent(runStart / source.getSampleRate(),
+                    runEnd / source.getSampleRate(), null);
+        }
+        runStart = -1;
+    }
+
+    // Load the next kept frame, from the index if it has been classified,
+    // or by classifying more of the source
+    private boolean nextKeptFrame() throws IOException {
+        framePos = 0;
+        if (kept < nKept) {
+            skipTo(keptFrames[kept]);
+            frameLen = readFrame();
+            kept++;
+            return frameLen > 0;
+        }
+        skipTo(classified);
+        while (!eof) {
+            long f = srcFrame;
+            frameLen = readFrame();
+            if (frameLen == 0) {
+                eof = true;
+                break;
+            }
+            classified++;
+            if (frameLen < nSamplesInFrame) {
+                eof = true;
+            }
+            if (voiced()) {
+                endRun();
+                keep(f);
+                keptLength += frameLen;
+                kept++;
+                return true;
+            }
+            if (runStart < 0) {
+                runStart = f * nSamplesInFrame;
+            }
+            runEnd = f * nSamplesInFrame + frameLen;
+        }
+        endRun();
+        frameLen = 0;
+        return false;
     }
 
+    /**
+     * Mark the output stream at the current point. The source's own mark is
+     * not moved.
+     */
     @Override
     public void mark() {
-        throw new Error("mark() not supported by SilenceFilter");
+        markPos = outPos;
     }
 
+    /**
+     * Return to the last point marked, or the start
+     *
+     * @throws IOException if the source can't be reset
+     */
     @Override
     public void reset() throws IOException {
-        throw new Error("reset() not supported by SilenceFilter");
+        seek(markPos);
     }
 
-    @Override
-    public int readSamples(float[][] samples, int offset, int length) throws IOException {
+    /**
+     * Move to a sample in the output stream. Frames already classified are
+     * not classified again.
+     *
+     * @param sample sample number in the output, i.e. with silences removed
+     * @throws IOException if the source can't be reset
+     */
+    public void seek(long sample) throws IOException {
         if (!initialised) {
-            // 1. calculation of mean and standard deviation over first 200ms
-            source.mark();
-            int firstSamples = (int) (FIRST_FRAMES * nSamplesInFrame);
-            float[][] fb = new float[firstSamples][source.getNumChannels()];
-            int reads = source.readSamples(fb, 0, firstSamples);
+            initialise();
+        }
+        source.reset();
+        srcFrame = 0;
+        frameLen = framePos = 0;
+        long k = sample / nSamplesInFrame;
+        // Load kept frames until frame k is the current frame
+        kept = (int) Math.min(k, nKept);
+        while (kept <= k && nextKeptFrame()) {
+        }
+        if (kept == k + 1) {
+            framePos = (int) Math.min(sample - k * nSamplesInFrame, frameLen);
+            outPos = k * nSamplesInFrame + framePos;
+        } else {
+            // Past the end
+            frameLen = framePos = 0;
+            outPos = keptLength;
+        }
+    }
 
-            double sum = 0;
-            for (int i = 0; i < reads; i++) {
-                for (int c = 0; c < source.getNumChannels(); c++) {
-                    sum += fb[i][c];
-                }
-            }
-            m = sum / reads;
+    /**
+     * @return number of samples in the output so far classified. Once the
+     * whole source has been read, this is the length of the output.
+     */
+    public long getKeptLength() {
+        return keptLength;
+    }
 
-            sum = 0;
-            for (int i = 0; i < reads; i++) {
-                float sample = 0;
-                for (int c = 0; c < source.getNumChannels(); c++) {
-                    sample += fb[i][c];
-                }
-                sum += Math.pow((sample - m), 2);
-            }
-            sd = Math.sqrt(sum / reads);
-            source.reset();
-            voiced = unvoiced = 0;
-            initialised = true;
+    /**
+     * Map a sample in the output to the corresponding sample in the source
+     *
+     * @param sample sample number in the output, which must have been
+     * classified
+     * @return sample number in the source
+     */
+    public long toSource(long sample) {
+        int k = (int) (sample / nSamplesInFrame);
+        if (k >= nKept) {
+            throw new IllegalArgumentException("Sample " + sample + " not classified");
         }
+        return (long) keptFrames[k] * nSamplesInFrame + sample % nSamplesInFrame;
+    }
 
+    @Override
+    public int readSamples(float[][] samples, int offset, int length) throws IOException {
+        if (isCancelled()) {
+            return -1;
+        }
+        if (!initialised) {
+            initialise();
+        }
         int read = 0;
-        int readp, writep;
-
+        int nChannels = source.getNumChannels();
         while (read < length) {
-            readp = writep = 0;
-            int read_now = source.readSamples(samples, offset, length);
-            boolean eos = (read_now < length);
-            while (readp < read_now) {
-                float sample = 0;
-                for (int c = 0; c < source.getNumChannels(); c++) {
-                    sample += samples[offset + readp][c];
-                }
-                totalRead++;
-                // 3. see whether one-dimensional Mahalanobis distance function
-                // |x-u|/s is greater than 3 or not.
-                double distance = Math.abs(sample - m) / sd;
-                if (distance > 3) {
-                    voiced++;
-                } else {
-                    unvoiced++;
-                }
-                if (voiced + unvoiced == nSamplesInFrame
-                        || readp + voiced + unvoiced == read_now) {
-                    int sread = voiced + unvoiced;
-                    // We've had an entire frame
-                    if (voiced > unvoiced) {
-                        // We want this frame
-                        if (writep + sread != readp) {
-                            for (int i = 0; i < sread; i++) {
-                                samples[offset + writep++] = samples[offset + readp++];
-                            }
-                        } else {
-                            writep = readp;
-                        }
-                        read += sread;
-                    } else if (listener != null) {                       
-                        listener.rangeEvent((totalRead - nSamplesInFrame)  / source.getSampleRate(),
-                                totalRead / source.getSampleRate(), null);
-                    }
-                    voiced = unvoiced = 0;
-                }
-                readp++;
-            }
-            if (eos) {
+            if (framePos == frameLen && !nextKeptFrame()) {
                 break;
             }
-            length -= writep;
-            offset += writep;
+            int n = Math.min(frameLen - framePos, length - read);
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(frame[framePos + i], 0,
+                        samples[offset + read + i], 0, nChannels);
+            }
+            framePos += n;
+            read += n;
         }
+        outPos += read;
         return read;
     }
 }
@@ -2,6 +2,7 @@ package extrackt;
 
 import java.util.Iterator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.io.IOException;
 
 /**
@@ -33,6 +34,11 @@ public class SampleWatcher extends SampleCopier {
         watchers.remove(w);
     }
 
+    /**
+     * Pass samples to the watchers
+     *
+     * @param buffer the samples; every row is passed
+     */
     protected void watch(float[][] buffer) {
         Iterator<Watcher> i = watchers.iterator();
         while (i.hasNext()) {
@@ -43,7 +49,11 @@ public class SampleWatcher extends SampleCopier {
     @Override
     public int readSamples(float[][] buffer, int offset, int length) throws IOException {
         int read = source.readSamples(buffer, offset, length);
-        watch(buffer);
+        if (read > 0) {
+            // Watchers only see the samples just read
+            watch((offset == 0 && read == buffer.length) ? buffer
+                    : Arrays.copyOfRange(buffer, offset, offset + read));
+        }
         return read;
     }
 }
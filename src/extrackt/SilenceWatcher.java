@@ -2,6 +2,8 @@ package extrackt;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Iterator;
 
@@ -13,15 +15,34 @@ import java.util.Iterator;
  * A silence is defined as a period during which the amplitude of the signal
  * on all channels does not exceed a threshold. A period has a minimum length.
  *
+ * The stream is examined a block at a time. The peak amplitude of the whole
+ * block is found first; a block that is entirely silent (or entirely loud
+ * with no silence open) needs no further work. Individual samples are only
+ * looked at in blocks where a silence starts or ends. Blocks are never longer
+ * than the shortest silence we are looking for, so a silence can't hide
+ * inside a loud block.
+ *
+ * Any number of thresholds are handled in the same pass. They are kept
+ * sorted by level, so a binary search on the block peak splits them into
+ * those for which the block is silent and those for which it is loud, and
+ * the peak of each sample is only computed once however many thresholds
+ * need it.
+ *
  * The input stream is passed on to the consumer unmodified.
  *
  * @author Crawford Currie
  */
 public class SilenceWatcher extends SampleCopier {
 
-    private final ArrayList<Suspect> thresholds;
+    // Largest block examined as a whole, in samples
+    private static final int MAX_BLOCK = 256;
+
+    private final Suspect[] suspects; // sorted by increasing level
+    private final int[] levels; // level of each suspect, for searching
+    private final int blockSize;
+    private final float[] peaks; // peak of each sample in the current block
     private int mark;
-    private int samplesRead;
+    private long samplesRead;
     private final AudioRangeListener listener;
 
     /**
@@ -31,9 +52,9 @@ public class SilenceWatcher extends SampleCopier {
 
         private final Silences.Threshold threshold;
         private final int minSamples; // samples
-        public int silenceStart;
-        public int silenceLength; // samples
-        public int max;
+        public long silenceStart; // sample number, -1 if no silence is open
+        public long silenceLength; // samples
+        public float max;
         
         public Suspect(Silences.Threshold t) {
             threshold = t;
@@ -43,38 +64,39 @@ public class SilenceWatcher extends SampleCopier {
             silenceLength = 0;
             max = 0;
         }
-        
-        // Called for each sample
-        public boolean sample(float[] samples, int nChannels, int samplesRead) {
-            boolean extend = false;
-            for (int i = 0; i < nChannels; i++) {
-                if (samples[i] <= threshold.level) {
-                    if (samples[i] > max)
-                        max = (int)samples[i]; // samples should be integer anyway
-                    extend = true;
-                }
-            }
-            if (extend) {
-                // Sample is below the threshold - extend the silence if
-                // appropriate
-                if (silenceStart >= 0) {
-                    silenceLength++;
-                } else {
-                    silenceStart = samplesRead;
-                    silenceLength = 1;
-                }
-            } else {
-                // Sample is over the threshold - terminate any open silence
-                if (silenceStart >= 0 && silenceLength > minSamples) {
-                    // We've had a silence; notify our listener
-                    if (!endSilence()) {
-                        return false;
-                    }
-                }
-                silenceStart = -1;
+
+        // Called for a block in which no sample exceeds the threshold
+        public void silentBlock(long start, int length, float blockMax) {
+            if (silenceStart < 0) {
+                silenceStart = start;
+                silenceLength = 0;
                 max = 0;
             }
-            return true;
+            silenceLength += length;
+            if (blockMax > max)
+                max = blockMax;
+        }
+
+        // Called when a loud sample ends the open silence, length samples
+        // into the block, with prefixMax the peak of the samples before it
+        public boolean endSilence(int length, float prefixMax) {
+            silenceLength += length;
+            if (prefixMax > max)
+                max = prefixMax;
+            boolean more = true;
+            if (silenceLength > minSamples) {
+                // We've had a silence; notify our listener
+                more = report();
+            }
+            silenceStart = -1;
+            return more;
+        }
+
+        // Called when the block ends with silence after the last loud sample
+        public void startSilence(long start, int length, float tailMax) {
+            silenceStart = start;
+            silenceLength = length;
+            max = tailMax;
         }
         
         // Called at the end
@@ -82,18 +104,19 @@ public class SilenceWatcher extends SampleCopier {
             if (silenceStart >= 0 && silenceLength > minSamples) {
                 // At the end of the stream, and there's an active silence
                 // Notify our listener
-                if (!endSilence()) {
+                if (!report()) {
                     return false;
                 }
             }
+            silenceStart = -1;
             return true;
         }
         
-        private boolean endSilence() {
+        private boolean report() {
             float start = (mark + silenceStart) / source.getSampleRate();
             float end = (mark + silenceStart + silenceLength) / source.getSampleRate();
             int[] data = new int[2];
-            data[0] = threshold.level; data[1] = max;
+            data[0] = threshold.level; data[1] = (int)max;
             return listener.rangeEvent(start, end, data);
         }
     }
@@ -109,36 +132,156 @@ public class SilenceWatcher extends SampleCopier {
     public SilenceWatcher(SampleSource in, AudioRangeListener l, List<Silences.Threshold> ts) {
         super(in);
         Iterator<Silences.Threshold> tit = ts.iterator();
-        thresholds = new ArrayList<>();
+        ArrayList<Suspect> sorted = new ArrayList<>();
+        int bs = MAX_BLOCK;
         while (tit.hasNext()) {
-            thresholds.add(new Suspect(tit.next()));
+            Suspect s = new Suspect(tit.next());
+            sorted.add(s);
+            // A silence that neither continues from the previous block nor
+            // runs to the end of this one is at most blockSize - 1 samples
+            // long, so too short to report
+            if (s.minSamples + 1 < bs)
+                bs = s.minSamples + 1;
         }
+        Collections.sort(sorted, new Comparator<Suspect>() {
+            @Override
+            public int compare(Suspect a, Suspect b) {
+                return Integer.compare(a.threshold.level, b.threshold.level);
+            }
+        });
+        suspects = sorted.toArray(new Suspect[sorted.size()]);
+        levels = new int[suspects.length];
+        for (int i = 0; i < suspects.length; i++) {
+            levels[i] = suspects[i].threshold.level;
+        }
+        blockSize = bs;
+        peaks = new float[blockSize];
         samplesRead = 0;
         listener = l;
     }
 
+    // Peak absolute amplitude over all channels of n samples
+    private static float blockMax(float[][] buff, int from, int n, int nChannels) {
+        float m = 0;
+        for (int i = from; i < from + n; i++) {
+            float[] frame = buff[i];
+            for (int c = 0; c < nChannels; c++) {
+                float v = frame[c];
+                if (v < 0)
+                    v = -v;
+                if (v > m)
+                    m = v;
+            }
+        }
+        return m;
+    }
+
+    // Peak absolute amplitude over all channels of each of n samples
+    private void samplePeaks(float[][] buff, int from, int n, int nChannels) {
+        for (int i = 0; i < n; i++) {
+            float[] frame = buff[from + i];
+            float m = 0;
+            for (int c = 0; c < nChannels; c++) {
+                float v = frame[c];
+                if (v < 0)
+                    v = -v;
+                if (v > m)
+                    m = v;
+            }
+            peaks[i] = m;
+        }
+    }
+
+    // Number of suspects with a level below the given peak, i.e. for which
+    // a block with that peak is loud
+    private int countLoud(float peak) {
+        int lo = 0, hi = levels.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (levels[mid] < peak)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    // Update the suspects for which a block of n samples is loud. As levels
+    // increase, the first loud sample can only move later and the last loud
+    // sample earlier, so one forward and one backward scan over the peaks
+    // serve all of them.
+    private boolean loudBlock(int nLoud, int n) {
+        int fwd = 0; // peaks[0..fwd) are within the current level
+        float fwdMax = 0;
+        int back = n; // peaks[back..n) are within the current level
+        float backMax = 0;
+        for (int t = 0; t < nLoud; t++) {
+            Suspect s = suspects[t];
+            int level = levels[t];
+            // There is a sample over this level, so neither scan can run
+            // off the end of the block
+            if (s.silenceStart >= 0) {
+                while (peaks[fwd] <= level) {
+                    if (peaks[fwd] > fwdMax)
+                        fwdMax = peaks[fwd];
+                    fwd++;
+                }
+                if (!s.endSilence(fwd, fwdMax))
+                    return false;
+            }
+            while (peaks[back - 1] <= level) {
+                back--;
+                if (peaks[back] > backMax)
+                    backMax = peaks[back];
+            }
+            if (back < n)
+                s.startSilence(samplesRead + back, n - back, backMax);
+        }
+        return true;
+    }
+
+    /**
+     * Get the point in the stream before which every silence has been
+     * reported; silences still open all start at or after it. Call on the
+     * thread reading the stream.
+     *
+     * @return number of samples from the start of the stream
+     */
+    public long getSettled() {
+        long settled = samplesRead;
+        for (int t = 0; t < suspects.length; t++) {
+            long start = suspects[t].silenceStart;
+            if (start >= 0 && start < settled)
+                settled = start;
+        }
+        return settled;
+    }
+
     @Override
     public int readSamples(float[][] buff, int offset, int length) throws IOException {
+        if (isCancelled())
+            return -1;
         int read = source.readSamples(buff, offset, length);
-        Iterator<Suspect> tit;
-       
-        for (int i = 0; i < read; i++) {
-            samplesRead++;
-
-            tit = thresholds.iterator();
-            while (tit.hasNext()) {
-                Suspect threshold = tit.next();
-                if (!threshold.sample(buff[i], source.getNumChannels(), samplesRead))
+        int nChannels = source.getNumChannels();
+
+        for (int b = 0; b < read; b += blockSize) {
+            int n = Math.min(blockSize, read - b);
+            float blockMax = blockMax(buff, offset + b, n, nChannels);
+            int nLoud = countLoud(blockMax);
+            if (nLoud > 0) {
+                samplePeaks(buff, offset + b, n, nChannels);
+                if (!loudBlock(nLoud, n))
                     return -1;
             }
+            for (int t = nLoud; t < suspects.length; t++) {
+                suspects[t].silentBlock(samplesRead, n, blockMax);
+            }
+            samplesRead += n;
         }
 
         if (read < length) {
-            tit = thresholds.iterator();
-        
-            while (tit.hasNext()) {
-                Suspect threshold = tit.next();
-                if (!threshold.endScan())
+            for (int t = 0; t < suspects.length; t++) {
+                if (!suspects[t].endScan())
                     return -1;
             }
         }
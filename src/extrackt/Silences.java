@@ -2,27 +2,54 @@ package extrackt;
 
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
+import java.util.AbstractList;
 import java.util.Iterator;
-import java.util.Vector;
 import java.util.ArrayList;
 import java.util.List;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
- * A sequence of silences. No ordering is imposed, each silence records start
- * and end times.
+ * A sequence of silences, kept sorted by start time with no two silences
+ * overlapping. Silences that overlap or touch are merged as they are added.
  * An object of this type also has a list of thresholds that were used in
  * determining the list of silences.
  *
+ * The silences are held in packed arrays, so tens of thousands of them cost
+ * little memory, and finding the silences near a time is a binary search.
+ * The Silence objects returned by get() and iterators are copies; changing
+ * them does not change the list.
+ *
  * @author crawford
  */
-public class Silences extends ArrayList<Silence> {
+public class Silences extends AbstractList<Silence> {
 
     private boolean modified;
     private List<Threshold> thresholds;
+    // Parallel arrays, sorted by start. Ends are sorted too, as silences
+    // don't overlap.
+    private float[] starts, ends;
+    private int[] levels, maxes;
+    private int count;
+    private boolean binary; // file format
+
+    private static final int MAGIC = 0x5853494c; // "XSIL"
+    private static final int VERSION = 1;
 
     private static Pattern THRE = Pattern.compile("^T +(\\d+) +([\\d.]+)$");
 
@@ -58,6 +85,7 @@ public class Silences extends ArrayList<Silence> {
     protected Silences() {
         thresholds = new ArrayList<>();
         modified = false;
+        allocate(16);
     }
 
     public Silences(List<Threshold> t) {
@@ -68,6 +96,166 @@ public class Silences extends ArrayList<Silence> {
             thresholds.add(tit.next());
         }
         modified = false;
+        allocate(16);
+    }
+
+    private void allocate(int capacity) {
+        starts = new float[capacity];
+        ends = new float[capacity];
+        levels = new int[capacity];
+        maxes = new int[capacity];
+        count = 0;
+    }
+
+    // Make room for at least n silences
+    private void ensureCapacity(int n) {
+        if (n <= starts.length) {
+            return;
+        }
+        int capacity = Math.max(n, starts.length * 2);
+        float[] s = new float[capacity];
+        System.arraycopy(starts, 0, s, 0, count);
+        starts = s;
+        float[] e = new float[capacity];
+        System.arraycopy(ends, 0, e, 0, count);
+        ends = e;
+        int[] l = new int[capacity];
+        System.arraycopy(levels, 0, l, 0, count);
+        levels = l;
+        int[] m = new int[capacity];
+        System.arraycopy(maxes, 0, m, 0, count);
+        maxes = m;
+    }
+
+    // Implement AbstractList
+    @Override
+    public int size() {
+        return count;
+    }
+
+    // Implement AbstractList
+    @Override
+    public Silence get(int i) {
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException("Index " + i + " size " + count);
+        }
+        return new Silence(starts[i], ends[i], levels[i], maxes[i]);
+    }
+
+    /**
+     * Add a silence, merging it with any it overlaps
+     *
+     * @param s the silence to add
+     * @return true
+     */
+    @Override
+    public boolean add(Silence s) {
+        addSilence(s.getStart(), s.getEnd(), s.getThreshold(), s.getLevel());
+        return true;
+    }
+
+    // Implement AbstractList
+    @Override
+    public Silence remove(int i) {
+        Silence s = get(i);
+        removeRange(i, i + 1);
+        return s;
+    }
+
+    @Override
+    protected void removeRange(int from, int to) {
+        int n = count - to;
+        System.arraycopy(starts, to, starts, from, n);
+        System.arraycopy(ends, to, ends, from, n);
+        System.arraycopy(levels, to, levels, from, n);
+        System.arraycopy(maxes, to, maxes, from, n);
+        count -= to - from;
+        modCount++;
+        modified = true;
+    }
+
+    @Override
+    public void clear() {
+        if (count > 0) {
+            modified = true;
+        }
+        count = 0;
+        modCount++;
+    }
+
+    /**
+     * @param t a time (seconds)
+     * @return the index of the first silence that ends at or after t, or
+     * size() if there is none
+     */
+    private int firstEndingAtOrAfter(float t) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @param t a time (seconds)
+     * @return the index of the first silence that starts after t, or size()
+     * if there is none
+     */
+    private int firstStartingAfter(float t) {
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Find the first silence that starts after a time
+     *
+     * @param t the time (seconds)
+     * @return the silence, or null if there is none
+     */
+    public Silence nextAfter(float t) {
+        int i = firstStartingAfter(t);
+        return (i < count) ? get(i) : null;
+    }
+
+    /**
+     * Find the last silence that ends before a time
+     *
+     * @param t the time (seconds)
+     * @return the silence, or null if there is none
+     */
+    public Silence lastBefore(float t) {
+        int i = firstEndingAtOrAfter(t) - 1;
+        return (i >= 0) ? get(i) : null;
+    }
+
+    /**
+     * Get the silences that overlap a period, e.g. the visible part of a
+     * display
+     *
+     * @param from start of the period (seconds)
+     * @param to end of the period (seconds)
+     * @return a view of the silences that overlap the period, in order
+     */
+    public List<Silence> range(float from, float to) {
+        int lo = firstEndingAtOrAfter(from);
+        int hi = firstStartingAfter(to);
+        if (hi < lo) {
+            hi = lo;
+        }
+        return subList(lo, hi);
     }
 
     /** Add threshold */
@@ -87,9 +275,8 @@ public class Silences extends ArrayList<Silence> {
     }
     
     public void clearThresholds() {
-        Iterator<Threshold> ti = thresholds.iterator();
-        while (ti.hasNext()) {
-            deleteThreshold(ti.next().level);
+        while (!thresholds.isEmpty()) {
+            deleteThreshold(thresholds.get(0).level);
         }
     }
     
@@ -113,6 +300,184 @@ public class Silences extends ArrayList<Silence> {
         modified = changed;
     }
 
+    /**
+     * Is the list read from, and written to, files in the binary format?
+     *
+     * @return true for binary, false for text
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
+    /**
+     * Set the format used by write(File)
+     *
+     * @param b true for binary, false for text
+     */
+    public void setBinary(boolean b) {
+        binary = b;
+    }
+
+    /**
+     * Is a file in the binary format?
+     *
+     * @param f the file
+     * @return true if the file starts with the binary format's magic number
+     * @throws IOException if the file can't be read
+     */
+    public static boolean isBinaryFile(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            return in.readInt() == MAGIC;
+        } catch (EOFException eof) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Load silences and thresholds from a file in either format. The format
+     * is remembered, and used by write(File).
+     *
+     * @param f the file
+     * @throws IOException if the file can't be read
+     */
+    public void load(File f) throws IOException {
+        if (isBinaryFile(f)) {
+            loadBinary(f);
+            binary = true;
+        } else {
+            Reader r = new FileReader(f);
+            try {
+                load(r);
+            } finally {
+                r.close();
+            }
+            binary = false;
+        }
+    }
+
+    /**
+     * Write silences and thresholds to a file, in the format last loaded
+     * (text by default)
+     *
+     * @param f the file
+     * @throws IOException if the file can't be written
+     */
+    public void write(File f) throws IOException {
+        if (binary) {
+            writeBinary(f);
+        } else {
+            PrintWriter out = new PrintWriter(new FileWriter(f));
+            try {
+                write(out);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    // The binary format is a header (magic, version, number of thresholds,
+    // then a level and duration for each threshold, then the number of
+    // silences), followed by the starts, ends, thresholds and levels of the
+    // silences, in order, as packed arrays. All values are big-endian ints
+    // or floats.
+    private void loadBinary(File f) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            try {
+                if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+                    throw new IOException(f + " is not a supported silences file");
+                }
+                clearThresholds();
+                int nt = b.getInt();
+                for (int i = 0; i < nt; i++) {
+                    int level = b.getInt();
+                    addThreshold(level, b.getFloat());
+                }
+                int n = b.getInt();
+                if (n < 0 || b.remaining() < 16L * n) {
+                    throw new IOException(f + " is truncated");
+                }
+                // Read into a separate list, so what we have is untouched
+                Silences in = new Silences();
+                in.allocate(Math.max(n, 16));
+                b.asFloatBuffer().get(in.starts, 0, n);
+                b.position(b.position() + 4 * n);
+                b.asFloatBuffer().get(in.ends, 0, n);
+                b.position(b.position() + 4 * n);
+                b.asIntBuffer().get(in.levels, 0, n);
+                b.position(b.position() + 4 * n);
+                b.asIntBuffer().get(in.maxes, 0, n);
+                in.count = n;
+                if (count == 0 && in.sorted()) {
+                    // Nothing to merge with, so take the arrays as they are
+                    starts = in.starts;
+                    ends = in.ends;
+                    levels = in.levels;
+                    maxes = in.maxes;
+                    count = n;
+                    modCount++;
+                } else {
+                    // Merge with what we already have, or repair the order
+                    for (int i = 0; i < n; i++) {
+                        addSilence(in.starts[i], in.ends[i], in.levels[i], in.maxes[i]);
+                    }
+                }
+            } catch (BufferUnderflowException bue) {
+                throw new IOException(f + " is truncated");
+            }
+        } finally {
+            raf.close();
+        }
+        modified = false;
+    }
+
+    // Are the silences sorted, without overlaps?
+    private boolean sorted() {
+        for (int i = 0; i < count; i++) {
+            if (starts[i] >= ends[i] || (i > 0 && starts[i] <= ends[i - 1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeBinary(File f) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(thresholds.size());
+            Iterator<Threshold> tit = thresholds.iterator();
+            while (tit.hasNext()) {
+                Threshold t = tit.next();
+                out.writeInt(t.level);
+                out.writeFloat(t.duration);
+            }
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeFloat(starts[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeFloat(ends[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(levels[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(maxes[i]);
+            }
+        } finally {
+            out.close();
+        }
+        modified = false;
+    }
+
     public void load(Reader f) throws IOException {
         BufferedReader r = new BufferedReader(f);
         String line;
@@ -146,44 +511,48 @@ public class Silences extends ArrayList<Silence> {
     }
 
     /**
-     * Add a new silence
+     * Add a new silence. If it overlaps or touches existing silences, they
+     * are merged into one, which keeps the threshold and level of the
+     * earliest existing silence.
      *
      * @param start start of the silence
      * @param end end of the silence
+     * @param th threshold level the silence was detected at
+     * @param max maximum level seen in the silence
      */
     public void addSilence(float start, float end, int th, int max) {
         if (start >= end) {
             return;
         }
-        for (int i = 0; i < size(); i++) {
-            Silence s = get(i);
-            if (start >= s.getStart()) {
-                if (start <= s.getEnd()) {
-                    if (end > s.getEnd()) {
-                        while (i + 1 < size()) {
-                            Silence n = get(i + 1);
-                            if (n.getStart() > end) {
-                                break;
-                            }
-                            if (n.getEnd() > end) {
-                                end = n.getEnd();
-                            }
-                            remove(i + 1);
-                        }
-                        s.setEnd(end);
-                    }
-                    return;
-                } // else next silence
-            }
-
-            if (end <= s.getEnd()) {
-                // start is before the beginning of this silence, but
-                // after the end of the previous silence
-                s.setStart(start);
-                return;
-            }
+        // Silences [lo, hi) overlap or touch the new one
+        int lo = firstEndingAtOrAfter(start);
+        int hi = firstStartingAfter(end);
+        if (lo >= hi) {
+            // No overlap; insert at lo
+            ensureCapacity(count + 1);
+            int n = count - lo;
+            System.arraycopy(starts, lo, starts, lo + 1, n);
+            System.arraycopy(ends, lo, ends, lo + 1, n);
+            System.arraycopy(levels, lo, levels, lo + 1, n);
+            System.arraycopy(maxes, lo, maxes, lo + 1, n);
+            starts[lo] = start;
+            ends[lo] = end;
+            levels[lo] = th;
+            maxes[lo] = max;
+            count++;
+            modCount++;
+            modified = true;
+            return;
+        }
+        if (start >= starts[lo] && end <= ends[hi - 1] && hi == lo + 1) {
+            // Entirely inside an existing silence
+            return;
+        }
+        starts[lo] = Math.min(start, starts[lo]);
+        ends[lo] = Math.max(end, ends[hi - 1]);
+        if (hi > lo + 1) {
+            removeRange(lo + 1, hi);
         }
-        add(new Silence(start, end, th, max));
         modified = true;
     }
 
@@ -3,15 +3,17 @@ package extrackt;
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.LineUnavailableException;
 import java.io.IOException;
-import static java.lang.Thread.yield;
 
 /**
  * Endpoint sink; sits on the end of a chain of input streams, sucking
- * up data and throwing it away.
+ * up data and throwing it away. The thread sleeps while there is nothing
+ * to play, and is woken by play().
  * @author crawford
  */
 public class Sink extends Thread {
     public static final int EXTERNAL_BUFFER_SIZE = 1048576; // 2^20, 1Mb
+    // Smallest buffer we will run with if memory is short
+    private static final int MIN_BUFFER_SIZE = 65536;
     
     protected AudioInputStream in;
     protected boolean stopped;
@@ -22,7 +24,18 @@ public class Sink extends Thread {
         in = null;
         stopped = true;
         runOnStop = null;
-        buffer = new byte[EXTERNAL_BUFFER_SIZE];
+        // The buffer is charged to the memory budget until the thread ends
+        buffer = new byte[(int) MemoryBudget.get().grant(EXTERNAL_BUFFER_SIZE, MIN_BUFFER_SIZE)];
+    }
+
+    /**
+     * Give the buffer back to the memory budget. Called when the thread ends.
+     */
+    protected void freeBuffer() {
+        if (buffer != null) {
+            MemoryBudget.get().giveBack(buffer.length);
+            buffer = null;
+        }
     }
     
     /**
@@ -31,16 +44,20 @@ public class Sink extends Thread {
      * @throws LineUnavailableException 
      */
     public void play(PCMDataSource ai, Runnable runOnStop) throws LineUnavailableException {
-        // Disconnect from currently open stream
-        if (in != null && ai != in) {
-            try {
-                in.close();
-            } catch (IOException e) {
+        synchronized (this) {
+            // Disconnect from currently open stream
+            if (in != null && ai != in) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
             }
+            in = ai;
+            stopped = false;
+            this.runOnStop = runOnStop;
+            // Wake the thread if it is waiting for something to play
+            notifyAll();
         }
-        in = ai;
-        stopped = false;
-        this.runOnStop = runOnStop;
         // Start the thread, if necessary. It will run until interrupted.
         if (!isAlive()) {
             start();
@@ -53,56 +70,50 @@ public class Sink extends Thread {
      * current play.
      */
     public void stopPlaying() {
-        stopped = true;
-        // Disconnect from currently open stream
-        if (in != null) {
-/*            try {
-                in.close();
-            } catch (IOException e) {
-            }*/
-        }
-        if (runOnStop != null) {
-            runOnStop.run();
+        Runnable r;
+        synchronized (this) {
+            stopped = true;
+            r = runOnStop;
             runOnStop = null;
         }
+        if (r != null) {
+            r.run();
+        }
+    }
+
+    /**
+     * Block until there is a stream to play
+     * @return the stream to play
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    protected synchronized AudioInputStream waitForStream() throws InterruptedException {
+        while (in == null || stopped) {
+            wait();
+        }
+        return in;
     }
 
     /**
      * Suck up to max bytes from the input stream, and store them in the buffer.
-     * @param max Maximum number of bytes to read
-     * @return number of bytes read
+     * Blocks until data is available.
+     * @param max Maximum number of bytes to read; 0 or more than the buffer
+     * holds means fill the buffer
+     * @return number of bytes read, or -1 at the end of the stream
      */
     protected int swallow(int max) {
-        if (max <= 0 || max > EXTERNAL_BUFFER_SIZE)
-            max = EXTERNAL_BUFFER_SIZE;
-        int canReceive = -1;
-        while (!stopped) {
-             yield(); // in case another process is preparing the data
-             canReceive = -1;
-             try {
-                 canReceive = in.available();
-             } catch (IOException ioe) {
-                 System.out.println("IOE on available "+ioe);
-                 stopPlaying();
-             }
-
-             if (canReceive >= 0)
-                 break;
-        }
-        if (canReceive > max)
-            canReceive = max;
-        
-        if (canReceive <= 0) {
-            interrupt();
-            return -1;
+        if (max <= 0 || max > buffer.length)
+            max = buffer.length;
+        AudioInputStream s;
+        synchronized (this) {
+            if (stopped || in == null)
+                return 0;
+            s = in;
         }
-        
         int nBytesRead = -1;
         try {
-            nBytesRead = in.read(buffer, 0, canReceive);
+            nBytesRead = s.read(buffer, 0, max);
         } catch (IOException ioe) {
              System.out.println("IOE on read "+ioe);
-             interrupt();
         }
         return nBytesRead;
     }
@@ -112,15 +123,17 @@ public class Sink extends Thread {
      */
     @Override
     public void run() {
-        int got = -1;
         while (!interrupted()) {
-            if (in == null || stopped)
-                continue;
-            got = swallow(0);
-            if (got < 0) {
+            try {
+                waitForStream();
+            } catch (InterruptedException ie) {
                 break;
             }
+            if (swallow(0) < 0) {
+                stopPlaying();
+            }
         }
         stopPlaying();
+        freeBuffer();
     }
 }
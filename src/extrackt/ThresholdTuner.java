@@ -0,0 +1,123 @@
+package extrackt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chooses silence thresholds that give a wanted number of gaps, such as the
+ * number of tracks expected less one. The search is over LevelStatistics, so
+ * needs no access to the audio and takes milliseconds.
+ *
+ * Every level and duration is tried. Those that give the wanted number of
+ * gaps (or the nearest number, if none gives it exactly) are candidates.
+ * Candidates are ranked by how stable the count is around them: a
+ * threshold in the middle of a wide range of durations and levels that all
+ * give the same count is unlikely to be sitting on an edge case.
+ *
+ * @author Crawford Currie
+ */
+public class ThresholdTuner {
+
+    /**
+     * A suggested threshold
+     */
+    public static class Candidate {
+
+        public final Silences.Threshold threshold;
+        /** Number of gaps the threshold is expected to find */
+        public final int gaps;
+        /** Stability score; higher is better */
+        public final int score;
+
+        Candidate(Silences.Threshold t, int g, int s) {
+            threshold = t;
+            gaps = g;
+            score = s;
+        }
+
+        @Override
+        public String toString() {
+            return threshold + " gaps " + gaps + " score " + score;
+        }
+    }
+
+    /**
+     * Find thresholds that give a number of gaps
+     *
+     * @param stats statistics of the audio
+     * @param gaps number of gaps wanted
+     * @param minDuration shortest duration to consider, seconds
+     * @param max maximum number of candidates to return
+     * @return candidates, best first
+     */
+    public static List<Candidate> tune(LevelStatistics stats, int gaps,
+            float minDuration, int max) {
+        int nl = LevelStatistics.LEVELS;
+        int nd = stats.getDurations();
+        int d0 = 0;
+        while (d0 < nd && stats.getDuration(d0) < minDuration) {
+            d0++;
+        }
+        int[][] counts = new int[nl][];
+        int best = Integer.MAX_VALUE;
+        for (int l = 0; l < nl; l++) {
+            counts[l] = stats.getSilenceCounts(l);
+            for (int d = d0; d < nd; d++) {
+                best = Math.min(best, Math.abs(counts[l][d] - gaps));
+            }
+        }
+        ArrayList<Candidate> found = new ArrayList<>();
+        if (best == Integer.MAX_VALUE) {
+            return found;
+        }
+
+        // At each level, take the middle of each range of durations that
+        // gives a count as close as possible to the number wanted
+        for (int l = 0; l < nl; l++) {
+            int d = d0;
+            while (d < nd) {
+                int count = counts[l][d];
+                if (Math.abs(count - gaps) != best) {
+                    d++;
+                    continue;
+                }
+                int end = d;
+                while (end < nd && counts[l][end] == count) {
+                    end++;
+                }
+                int mid = (d + end - 1) / 2;
+                // How many neighbouring levels give the same count there
+                int lo = l, hi = l;
+                while (lo > 0 && counts[lo - 1][mid] == count) {
+                    lo--;
+                }
+                while (hi < nl - 1 && counts[hi + 1][mid] == count) {
+                    hi++;
+                }
+                // Neighbouring levels would only repeat this candidate, so
+                // take the one in the middle
+                if (l == (lo + hi) / 2) {
+                    // A silence must be longer than the duration to be found
+                    float dur = stats.getDuration(mid) - stats.getFrameLength() / 2;
+                    found.add(new Candidate(new Silences.Threshold(
+                            LevelStatistics.getLevel(l), dur),
+                            count, (end - d) * (hi - lo + 1)));
+                }
+                d = end;
+            }
+        }
+
+        Collections.sort(found, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                return Integer.compare(a.threshold.level, b.threshold.level);
+            }
+        });
+        return found.size() > max ? new ArrayList<>(found.subList(0, max)) : found;
+    }
+}
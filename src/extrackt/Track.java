@@ -6,6 +6,7 @@ import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioFileFormat;
 import javax.sound.sampled.AudioSystem;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.PrintWriter;
 import java.io.OutputStream;
 
@@ -20,10 +21,11 @@ public class Track extends HashMap<String, String> {
     private float start_s, end_s;
     // Fade in and fade out for the track
     private float fadeIn_s, fadeOut_s;
-    // Bitmask, showing what needs writing
-    private int modified;
+    // Bitmask, showing what needs writing. Export jobs change it on worker
+    // threads while the UI reads it, so changes are made under the lock.
+    private volatile int modified;
     // Deleted?
-    private boolean deleted;
+    private volatile boolean deleted;
     // Default name
     private final String defaultName;
     
@@ -82,7 +84,7 @@ public class Track extends HashMap<String, String> {
      * @param changed bitmask of the aspects that have changed; a combination
      * of SCRIPT, AUDIO and TRACK
      */
-    public void setModified(int changed) {
+    public synchronized void setModified(int changed) {
         modified |= changed;
     }
 
@@ -90,7 +92,7 @@ public class Track extends HashMap<String, String> {
      * Clear the modification status
      * @param changed bitmask of aspects to clear
      */
-    public void clearModified(int changed) {
+    public synchronized void clearModified(int changed) {
         modified &= ~changed;
     }
 
@@ -342,6 +344,37 @@ public class Track extends HashMap<String, String> {
         clearModified(SCRIPT);
     }
 
+    /**
+     * A stream that reports how much has been read through a monitor, and
+     * fails with an InterruptedIOException if the monitor is cancelled.
+     */
+    private static class MonitoredStream extends AudioInputStream {
+
+        private final Monitor monitor;
+        private final long total;
+        private long done;
+
+        MonitoredStream(AudioInputStream in, Monitor m) {
+            super(in, in.getFormat(), in.getFrameLength());
+            monitor = m;
+            total = in.getFrameLength() * in.getFormat().getFrameSize();
+            done = 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (monitor.isCancelled()) {
+                throw new InterruptedIOException("Cancelled");
+            }
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                done += read;
+                monitor.progress(done, total);
+            }
+            return read;
+        }
+    }
+
     /**
      * Retrieve audio for the track from a file, and write a new file containing
      * that audio.
@@ -351,6 +384,21 @@ public class Track extends HashMap<String, String> {
      * @throws IOException
      */
     public void writeAudio(RandomAccessAudioFile audio, OutputStream of) throws IOException {
+        writeAudio(audio, of, null);
+    }
+
+    /**
+     * Retrieve audio for the track from a file, and write a new file containing
+     * that audio, reporting progress through a monitor.
+     *
+     * @param audio source to get audio data from
+     * @param of file to write with audio data
+     * @param m monitor that can cancel the write, or null
+     * @throws IOException if the write failed, or InterruptedIOException if
+     * it was cancelled. The output is then incomplete, and the track is left
+     * marked as modified.
+     */
+    public void writeAudio(RandomAccessAudioFile audio, OutputStream of, Monitor m) throws IOException {
         if (deleted) {
             return;
         }
@@ -358,8 +406,17 @@ public class Track extends HashMap<String, String> {
         setModified(WRITING);
         AudioInputStream s = audio.getAudioInputStream(start_s, end_s - start_s);
         s = getFadeFilter(getLevelFilter(s));
-        AudioSystem.write(s, AudioFileFormat.Type.WAVE, of);
-        clearModified(WRITING);
+        if (m != null) {
+            s = new MonitoredStream(s, m);
+        }
+        try {
+            AudioSystem.write(s, AudioFileFormat.Type.WAVE, of);
+        } catch (IOException ioe) {
+            setModified(AUDIO);
+            throw ioe;
+        } finally {
+            clearModified(WRITING);
+        }
     }
 
     /**
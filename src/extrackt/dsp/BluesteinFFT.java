@@ -0,0 +1,36 @@
+package extrackt.dsp;
+
+import extrackt.Monitor;
+
+/**
+ * FFTBackend using Bluestein's algorithm (a ChirpZ of all the bins), which
+ * does a transform of any size in time that depends only on the size, not
+ * on its factors. For sizes with large prime factors, it is much faster
+ * than the mixed radix transform. Powers of 2 are left to the other
+ * backends, which the ChirpZ itself uses.
+ *
+ * @author Crawford Currie
+ */
+public class BluesteinFFT extends FFTBackend {
+
+    @Override
+    public String getName() {
+        return "bluestein";
+    }
+
+    @Override
+    public boolean supports(int n) {
+        return n > 1 && (n & (n - 1)) != 0;
+    }
+
+    @Override
+    public double getCost(int n) {
+        // The kernel's FFT is done once, when the ChirpZ is made
+        return ChirpZ.getCost(n, n);
+    }
+
+    @Override
+    public void forward(int n, float[] data, Monitor m) throws InterruptedException {
+        ChirpZ.get(n, n).transform(data, data, m);
+    }
+}
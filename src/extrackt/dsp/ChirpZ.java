@@ -0,0 +1,162 @@
+package extrackt.dsp;
+
+import extrackt.BudgetedCache;
+import extrackt.Monitor;
+
+/**
+ * Chirp-z transform: the first few bins of the DFT of n points, for any n,
+ * computed through power of 2 FFTs. The DFT is rewritten as a convolution
+ * with a chirp, exp(-i pi t^2 / n), using jk = (j^2 + k^2 - (k - j)^2) / 2,
+ * and the convolution is done by FFT. The FFT is of the smallest power of 2
+ * at least n + bins - 1 points, so the time taken depends only on that,
+ * and not on the factors of n (Bluestein's algorithm). When only the low
+ * bins are wanted, the FFT can also be smaller than for all of them.
+ *
+ * A ChirpZ for a size is immutable and can be shared by threads. They are
+ * cached.
+ *
+ * @author Crawford Currie
+ */
+public class ChirpZ {
+
+    private final int n; // number of input points
+    private final int bins; // number of bins computed
+    private final int size; // size of the convolution
+    private final float[] chirp; // exp(-i pi t^2 / n), [Re, Im]
+    private final float[] kernel; // FFT of the conjugate chirp, [Re, Im]
+
+    private static final BudgetedCache<Long, ChirpZ> cache
+            = new BudgetedCache<Long, ChirpZ>("Chirp-z plans", 4) {
+                @Override
+                protected long sizeOf(ChirpZ c) {
+                    return 32 + 4L * (c.chirp.length + c.kernel.length);
+                }
+            };
+
+    private ChirpZ(int n, int bins) {
+        this.n = n;
+        this.bins = bins;
+        size = sizeFor(n, bins);
+        int len = Math.max(n, bins);
+        chirp = new float[2 * len];
+        for (int t = 0; t < len; t++) {
+            // t^2 mod 2n keeps the angle small, so it stays accurate
+            long t2 = ((long) t * t) % (2L * n);
+            double theta = -Math.PI * t2 / n;
+            chirp[2 * t] = (float) Math.cos(theta);
+            chirp[2 * t + 1] = (float) Math.sin(theta);
+        }
+        // conj(chirp) at t = -(n-1)..bins-1, wrapped round the convolution
+        kernel = new float[2 * size];
+        for (int t = 0; t < bins; t++) {
+            kernel[2 * t] = chirp[2 * t];
+            kernel[2 * t + 1] = -chirp[2 * t + 1];
+        }
+        for (int t = 1; t < n; t++) {
+            kernel[2 * (size - t)] = chirp[2 * t];
+            kernel[2 * (size - t) + 1] = -chirp[2 * t + 1];
+        }
+        try {
+            FFTService.forward(size, kernel, null);
+        } catch (InterruptedException ie) {
+            // Can't happen without a monitor
+        }
+    }
+
+    // Smallest power of 2 that holds the convolution
+    private static int sizeFor(int n, int bins) {
+        int len = n + bins - 1;
+        return (len & (len - 1)) == 0 ? len : Integer.highestOneBit(len) << 1;
+    }
+
+    /**
+     * Get the transform for a size, from the cache if possible
+     *
+     * @param n number of input points
+     * @param bins number of bins wanted, 1..n
+     * @return the transform
+     */
+    public static ChirpZ get(int n, int bins) {
+        if (bins < 1 || bins > n) {
+            throw new IllegalArgumentException(bins + " bins of " + n);
+        }
+        long k = ((long) n << 32) | bins;
+        ChirpZ c = cache.get(k);
+        if (c == null) {
+            c = new ChirpZ(n, bins);
+            cache.put(k, c);
+        }
+        return c;
+    }
+
+    /**
+     * Estimate the work in a transform, as for FFTBackend.getCost
+     *
+     * @param n number of input points
+     * @param bins number of bins wanted
+     * @return the estimated cost
+     */
+    public static double getCost(int n, int bins) {
+        int size = sizeFor(n, bins);
+        // Two FFTs, and the multiplications by the chirp and kernel
+        return 2 * 0.8 * size * Math.log(size) / Math.log(2) + size + n + bins;
+    }
+
+    /**
+     * Transform complex data
+     *
+     * @param in [2*n] complex input
+     * @param out [2*bins] array for the bins; may be the same as in
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public void transform(float[] in, float[] out, Monitor m) throws InterruptedException {
+        float[] a = new float[2 * size];
+        for (int j = 0; j < n; j++) {
+            float xr = in[2 * j], xi = in[2 * j + 1];
+            float wr = chirp[2 * j], wi = chirp[2 * j + 1];
+            a[2 * j] = xr * wr - xi * wi;
+            a[2 * j + 1] = xr * wi + xi * wr;
+        }
+        convolve(a, out, m);
+    }
+
+    /**
+     * Transform real data
+     *
+     * @param in [n] samples
+     * @param out [2*bins] array for the bins; may be the same as in, if it is
+     * big enough
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public void realTransform(float[] in, float[] out, Monitor m) throws InterruptedException {
+        float[] a = new float[2 * size];
+        for (int j = 0; j < n; j++) {
+            a[2 * j] = in[j] * chirp[2 * j];
+            a[2 * j + 1] = in[j] * chirp[2 * j + 1];
+        }
+        convolve(a, out, m);
+    }
+
+    // Convolve the chirped input with the kernel, and chirp the result
+    private void convolve(float[] a, float[] out, Monitor m) throws InterruptedException {
+        FFTService.forward(size, a, m);
+        // Multiply by the kernel, and conjugate so a forward FFT gives the
+        // (conjugate of the) inverse
+        for (int i = 0; i < 2 * size; i += 2) {
+            float ar = a[i], ai = a[i + 1];
+            float kr = kernel[i], ki = kernel[i + 1];
+            a[i] = ar * kr - ai * ki;
+            a[i + 1] = -(ar * ki + ai * kr);
+        }
+        FFTService.forward(size, a, m);
+        float scale = 1f / size;
+        for (int k = 0; k < bins; k++) {
+            float cr = a[2 * k] * scale, ci = -a[2 * k + 1] * scale;
+            float wr = chirp[2 * k], wi = chirp[2 * k + 1];
+            out[2 * k] = cr * wr - ci * wi;
+            out[2 * k + 1] = cr * wi + ci * wr;
+        }
+    }
+}
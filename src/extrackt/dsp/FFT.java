@@ -1,5 +1,7 @@
 package extrackt.dsp;
 
+import extrackt.BudgetedCache;
+
 /**
  * FFT class for real signals. Upon return, data[REAL] and data{IMAG] contain the
  * DFT output.
@@ -9,71 +11,207 @@ public class FFT {
     public static final int REAL = 0;
     public static int IMAG = 1;
 
+    /**
+     * The parts of a transform that depend only on its size: the bit
+     * reversal permutation and the twiddle factors. A plan is immutable and
+     * shared by all transforms of its size, on any thread, so a transform
+     * does no trigonometry.
+     */
+    public static class Plan {
+
+        final int numPoints;
+        final int numStages;
+        final int[] swaps; // pairs of indices exchanged by bit reversal
+        final double[] wr, wi; // exp(-2 pi i k / 2^numStages)
+
+        private Plan(int n) {
+            numPoints = n;
+            numStages = (n > 1) ? (int) (Math.log(n) / Math.log(2)) : 0;
+
+            // Bit reversal sorting, recorded as the swaps it makes
+            int[] s = new int[n];
+            int ns = 0;
+            int halfNumPoints = n >> 1;
+            int j = halfNumPoints;
+            int k;
+            for (int i = 1; i < n - 2; i++) {
+                if (i < j) {
+                    s[ns++] = i;
+                    s[ns++] = j;
+                }
+                k = halfNumPoints;
+                while (k <= j) {
+                    j -= k;
+                    k >>= 1;
+                }
+                j += k;
+            }
+            swaps = new int[ns];
+            System.arraycopy(s, 0, swaps, 0, ns);
+
+            int half = (1 << numStages) >> 1;
+            wr = new double[half];
+            wi = new double[half];
+            for (int i = 0; i < half; i++) {
+                double theta = Math.PI * i / half;
+                wr[i] = Math.cos(theta);
+                wi[i] = -Math.sin(theta);
+            }
+        }
+
+        /**
+         * Get the plan for a transform of n points, from the cache if
+         * possible
+         *
+         * @param n number of points
+         * @return the plan
+         */
+        public static Plan get(int n) {
+            Plan p = plans.get(n);
+            if (p == null) {
+                p = new Plan(n);
+                plans.put(n, p);
+            }
+            return p;
+        }
+
+        /**
+         * @return the number of points in the transform
+         */
+        public int getSize() {
+            return numPoints;
+        }
+    }
+
+    private static final BudgetedCache<Integer, Plan> plans
+            = new BudgetedCache<Integer, Plan>("DSP FFT plans", 4) {
+                @Override
+                protected long sizeOf(Plan p) {
+                    return 16 + 4L * p.swaps.length + 16 + 16L * p.wr.length;
+                }
+            };
+
     public static float[][] fft(float[] signal) {
+        return fft(Plan.get(signal.length), signal);
+    }
+
+    /**
+     * Transform a signal using a plan for its length
+     *
+     * @param plan the plan
+     * @param signal the signal
+     * @return the DFT, as [REAL] and [IMAG] arrays
+     */
+    public static float[][] fft(Plan plan, float[] signal) {
         int numPoints = signal.length;
-        // initialize real & imag
+        if (numPoints != plan.numPoints) {
+            throw new IllegalArgumentException("The plan is for " + plan.numPoints + " points");
+        }
+        // initialize real & imag; the imaginary part is all zero
         float [][] data = new float[2][numPoints];
         System.arraycopy(signal, 0, data[REAL], 0, numPoints);
-        // set all of the samples in the imaginary part to zero
-        for (int i = 0; i < numPoints; i++) {
-            data[IMAG][i] = 0;
+        transform(plan, data[REAL], data[IMAG]);
+        return data;
+    }
+
+    /**
+     * Transform a real signal, computing only the non-negative frequencies.
+     * The signal is treated as a complex signal of half the length, whose
+     * transform is unscrambled into the transform of the real signal. This
+     * takes about half the time and memory of fft().
+     *
+     * @param signal the signal; its length must be a power of 2
+     * @return the DFT for frequencies 0..length/2, as [REAL] and [IMAG]
+     * arrays of length/2 + 1
+     */
+    public static float[][] realFft(float[] signal) {
+        int n = signal.length;
+        int half = n / 2;
+        if (n < 4) {
+            float[][] full = fft(signal);
+            float[][] data = new float[2][half + 1];
+            System.arraycopy(full[REAL], 0, data[REAL], 0, half + 1);
+            System.arraycopy(full[IMAG], 0, data[IMAG], 0, half + 1);
+            return data;
+        }
+        // Even samples are the real part, odd the imaginary part
+        float[][] data = new float[2][half + 1];
+        float[] re = data[REAL];
+        float[] im = data[IMAG];
+        for (int k = 0; k < half; k++) {
+            re[k] = signal[2 * k];
+            im[k] = signal[2 * k + 1];
+        }
+        transform(Plan.get(half), re, im);
+
+        // D[k] = E[k] + W^k O[k], where E and O are the transforms of the
+        // even and odd samples, and W = exp(-2 pi i / n). D[half - k] is
+        // the conjugate of E[k] - W^k O[k], so both are done at once. The
+        // plan for n points has W^k in its twiddle table.
+        Plan w = Plan.get(n);
+        float a = re[0];
+        float b = im[0];
+        re[0] = a + b;
+        im[0] = 0;
+        re[half] = a - b;
+        im[half] = 0;
+        for (int k = 1; k <= half / 2; k++) {
+            int j = half - k;
+            double er = (re[k] + re[j]) / 2.0, ei = (im[k] - im[j]) / 2.0;
+            double or = (im[k] + im[j]) / 2.0, oi = (re[j] - re[k]) / 2.0;
+            double tr = w.wr[k] * or - w.wi[k] * oi;
+            double ti = w.wr[k] * oi + w.wi[k] * or;
+            re[k] = (float) (er + tr);
+            im[k] = (float) (ei + ti);
+            if (j != k) {
+                re[j] = (float) (er - tr);
+                im[j] = (float) (ti - ei);
+            }
         }
+        return data;
+    }
+
+    // In place complex transform of the first plan.numPoints points
+    private static void transform(Plan plan, float[] re, float[] im) {
+        int numPoints = plan.numPoints;
 
-        final int numStages = (int) (Math.log(numPoints) / Math.log(2));
-        int halfNumPoints = numPoints >> 1;
-        int j = halfNumPoints;
         // FFT time domain decomposition carried out by "bit reversal sorting"
         // algorithm
-        int k;
-        for (int i = 1; i < numPoints - 2; i++) {
-            if (i < j) {
-                // swap
-                float tempReal = data[REAL][j];
-                float tempImag = data[IMAG][j];
-                data[REAL][j] = data[REAL][i];
-                data[IMAG][j] = data[IMAG][i];
-                data[REAL][i] = tempReal;
-                data[IMAG][i] = tempImag;
-            }
-            k = halfNumPoints;
-            while (k <= j) {
-                j -= k;
-                k >>= 1;
-            }
-            j += k;
+        int[] swaps = plan.swaps;
+        for (int s = 0; s < swaps.length; s += 2) {
+            int i = swaps[s];
+            int j = swaps[s + 1];
+            float tempReal = re[j];
+            float tempImag = im[j];
+            re[j] = re[i];
+            im[j] = im[i];
+            re[i] = tempReal;
+            im[i] = tempImag;
         }
 
         // loop for each stage
-        for (int stage = 1; stage <= numStages; stage++) {
-            int LE = 1;
-            for (int i = 0; i < stage; i++) {
-                LE <<= 1;
-            }
+        int half = plan.wr.length;
+        for (int stage = 1; stage <= plan.numStages; stage++) {
+            int LE = 1 << stage;
             int LE2 = LE >> 1;
-            double UR = 1;
-            double UI = 0;
-            // calculate sine & cosine values
-            double SR = Math.cos(Math.PI / LE2);
-            double SI = -Math.sin(Math.PI / LE2);
+            // Step through the twiddle table for this stage
+            int step = half / LE2;
             // loop for each sub DFT
             for (int subDFT = 1; subDFT <= LE2; subDFT++) {
+                double UR = plan.wr[(subDFT - 1) * step];
+                double UI = plan.wi[(subDFT - 1) * step];
                 // loop for each butterfly
                 for (int butterfly = subDFT - 1; butterfly <= numPoints - 1; butterfly += LE) {
                     int ip = butterfly + LE2;
                     // butterfly calculation
-                    float tempReal = (float) (data[REAL][ip] * UR - data[IMAG][ip] * UI);
-                    float tempImag = (float) (data[REAL][ip] * UI + data[IMAG][ip] * UR);
-                    data[REAL][ip] = data[REAL][butterfly] - tempReal;
-                    data[IMAG][ip] = data[IMAG][butterfly] - tempImag;
-                    data[REAL][butterfly] += tempReal;
-                    data[IMAG][butterfly] += tempImag;
+                    float tempReal = (float) (re[ip] * UR - im[ip] * UI);
+                    float tempImag = (float) (re[ip] * UI + im[ip] * UR);
+                    re[ip] = re[butterfly] - tempReal;
+                    im[ip] = im[butterfly] - tempImag;
+                    re[butterfly] += tempReal;
+                    im[butterfly] += tempImag;
                 }
-
-                double tempUR = UR;
-                UR = tempUR * SR - UI * SI;
-                UI = tempUR * SI + UI * SR;
             }
         }
-        return data;
     }
 }
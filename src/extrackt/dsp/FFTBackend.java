@@ -0,0 +1,97 @@
+package extrackt.dsp;
+
+import extrackt.FloatFFT;
+import extrackt.Monitor;
+
+/**
+ * An implementation of the FFT, for FFTService to choose from. A backend
+ * only has to provide a forward complex transform for the sizes it
+ * supports; the transform of real data is built on it.
+ *
+ * Data is single precision, laid out as for extrackt.FFT: Re(D[i]) =
+ * data[2i], Im(D[i]) = data[2i+1], in wrap-around order. Implementations
+ * must be safe to call from several threads at once.
+ *
+ * @author Crawford Currie
+ */
+public abstract class FFTBackend {
+
+    /**
+     * @return name of the backend, for reporting and for the extrackt.fft
+     * property
+     */
+    public abstract String getName();
+
+    /**
+     * @param n number of complex points
+     * @return true if the backend can transform n points
+     */
+    public abstract boolean supports(int n);
+
+    /**
+     * Estimate the work in a transform, in units of about one complex
+     * multiply and add. FFTService uses this to rule out backends that
+     * would plainly be slow before timing the rest, and to choose outright
+     * for sizes it doesn't time. The default is for an n log n algorithm.
+     *
+     * @param n number of complex points
+     * @return the estimated cost
+     */
+    public double getCost(int n) {
+        return n * log2(n);
+    }
+
+    /**
+     * @param n a positive number
+     * @return log to base 2 of n
+     */
+    protected static double log2(int n) {
+        return Math.log(n) / Math.log(2);
+    }
+
+    /**
+     * Forward transform of complex data, in place
+     *
+     * @param n number of complex points
+     * @param data [2*n] array of data
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public abstract void forward(int n, float[] data, Monitor m) throws InterruptedException;
+
+    /**
+     * Forward transform of real data, computing only the non-negative
+     * frequencies. When n is even, the samples are transformed as n/2
+     * complex points, so the backend must support n/2; otherwise it must
+     * support n.
+     *
+     * @param n number of samples
+     * @param data array of at least n + 2 (n + 1 if n is odd). On entry,
+     * data[0..n-1] are the samples. On return, Re(D[k]) = data[2k] and Im(D[k])
+     * = data[2k+1], for k = 0..n/2.
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public void realForward(int n, float[] data, Monitor m) throws InterruptedException {
+        int half = n / 2;
+        if (data.length < 2 * half + 2) {
+            throw new IllegalArgumentException("The data array is too short");
+        }
+        if (n % 2 == 1 || n < 4) {
+            float[] d = new float[2 * n];
+            for (int i = 0; i < n; i++) {
+                d[2 * i] = data[i];
+            }
+            forward(n, d, m);
+            System.arraycopy(d, 0, data, 0, 2 * half + 2);
+            return;
+        }
+        forward(half, data, m);
+        FloatFFT.unscrambleReal(n, data);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -0,0 +1,216 @@
+package extrackt.dsp;
+
+import extrackt.BudgetedCache;
+import extrackt.Monitor;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The one place FFTs are done for analysis. Several backends are
+ * registered, and the first time a size is asked for, a backend that
+ * supports it is chosen and used for that size from then on.
+ *
+ * Powers of two up to MAX_TIMED are calibrated: backends whose estimated
+ * cost is more than twice the lowest are ruled out, and if more than one
+ * is left, each is timed on a few transforms of that size. There are few
+ * of these sizes, they are used over and over (by the STFT, MFCC, and
+ * inside Bluestein's algorithm and the four step transform), and they are
+ * quick to time, so each is timed once and remembered. Any other size,
+ * such as the length of a selection, may well only be used once, so it
+ * gets the backend with the lowest estimated cost, without any timing.
+ * These choices are cached in a BudgetedCache.
+ *
+ * A backend can be forced by setting the system property extrackt.fft to
+ * its name. It is used for every size it supports.
+ *
+ * @author Crawford Currie
+ */
+public class FFTService {
+
+    // Number of timed transforms for each backend
+    private static final int RUNS = 3;
+    // Largest size that is timed; timing bigger ones holds up the caller
+    private static final int MAX_TIMED = 1 << 16;
+
+    private static final CopyOnWriteArrayList<FFTBackend> backends
+            = new CopyOnWriteArrayList<>();
+    // Timed backend for each power of two up to MAX_TIMED, by log2 of size
+    private static final AtomicReferenceArray<FFTBackend> timed
+            = new AtomicReferenceArray<>(Integer.numberOfTrailingZeros(MAX_TIMED) + 1);
+    // Backend with the lowest estimated cost for other sizes
+    private static final BudgetedCache<Integer, FFTBackend> chosen
+            = new BudgetedCache<Integer, FFTBackend>("FFT backends", 1) {
+                @Override
+                protected long sizeOf(FFTBackend b) {
+                    // The key and the map entry; backends are shared
+                    return 64;
+                }
+            };
+
+    static {
+        backends.add(new MixedRadixFFT());
+        backends.add(new Radix2FFT());
+        backends.add(new SplitRadixFFT());
+        backends.add(new BluesteinFFT());
+        backends.add(new FourStepFFT());
+    }
+
+    /**
+     * Add a backend. Sizes already chosen for are chosen for again.
+     *
+     * @param b the backend
+     */
+    public static void register(FFTBackend b) {
+        backends.add(b);
+        for (int i = 0; i < timed.length(); i++) {
+            timed.set(i, null);
+        }
+        chosen.clear();
+    }
+
+    /**
+     * @return the registered backends
+     */
+    public static List<FFTBackend> getBackends() {
+        return new ArrayList<>(backends);
+    }
+
+    /**
+     * Get the backend to use for a complex transform
+     *
+     * @param n number of complex points
+     * @return the backend chosen for n
+     */
+    public static FFTBackend get(int n) {
+        if ((n & (n - 1)) == 0 && n <= MAX_TIMED) {
+            int log = Integer.numberOfTrailingZeros(n);
+            FFTBackend b = timed.get(log);
+            if (b == null) {
+                b = choose(n, true);
+                if (!timed.compareAndSet(log, null, b) && timed.get(log) != null) {
+                    b = timed.get(log);
+                }
+            }
+            return b;
+        }
+        FFTBackend b = chosen.get(n);
+        if (b == null) {
+            b = choose(n, false);
+            chosen.put(n, b);
+        }
+        return b;
+    }
+
+    // Choose a backend for a size by the estimated costs, and if measure,
+    // by timing those that are close
+    private static FFTBackend choose(int n, boolean measure) {
+        ArrayList<FFTBackend> candidates = new ArrayList<>();
+        String forced = System.getProperty("extrackt.fft");
+        for (FFTBackend b : backends) {
+            if (b.supports(n)) {
+                if (b.getName().equals(forced)) {
+                    return b;
+                }
+                candidates.add(b);
+            }
+        }
+        if (candidates.isEmpty()) {
+            throw new IllegalArgumentException("No FFT for " + n + " points");
+        }
+        FFTBackend cheapest = candidates.get(0);
+        double least = cheapest.getCost(n);
+        for (FFTBackend b : candidates) {
+            double cost = b.getCost(n);
+            if (cost < least) {
+                least = cost;
+                cheapest = b;
+            }
+        }
+        for (int i = candidates.size() - 1; i >= 0; i--) {
+            if (candidates.get(i).getCost(n) > 2 * least) {
+                candidates.remove(i);
+            }
+        }
+        // A nonsense estimate can rule out everything
+        if (candidates.isEmpty()) {
+            return cheapest;
+        }
+        if (candidates.size() == 1) {
+            return candidates.get(0);
+        }
+        if (!measure) {
+            return cheapest;
+        }
+        Random r = new Random(n);
+        float[] signal = new float[2 * n];
+        for (int i = 0; i < signal.length; i++) {
+            signal[i] = r.nextFloat();
+        }
+        float[] data = new float[2 * n];
+        FFTBackend best = null;
+        long bestTime = Long.MAX_VALUE;
+        for (FFTBackend b : candidates) {
+            long time = Long.MAX_VALUE;
+            // The first run is a warm up, and builds any plan
+            for (int run = 0; run <= RUNS; run++) {
+                System.arraycopy(signal, 0, data, 0, data.length);
+                long start = System.nanoTime();
+                try {
+                    b.forward(n, data, null);
+                } catch (InterruptedException ie) {
+                    // Can't happen without a monitor
+                }
+                if (run > 0) {
+                    time = Math.min(time, System.nanoTime() - start);
+                }
+            }
+            if (time < bestTime) {
+                bestTime = time;
+                best = b;
+            }
+        }
+        return best == null ? cheapest : best;
+    }
+
+    /**
+     * Estimate the work in a transform of real data, as for
+     * FFTBackend.getCost
+     *
+     * @param n number of samples
+     * @return the estimated cost using the backend for n
+     */
+    public static double getRealCost(int n) {
+        int size = (n % 2 == 0 && n >= 4) ? n / 2 : n;
+        return get(size).getCost(size) + size;
+    }
+
+    /**
+     * Forward transform of complex data, in place, using the backend
+     * chosen for the size
+     *
+     * @param n number of complex points
+     * @param data [2*n] array of data, as for FFTBackend.forward
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public static void forward(int n, float[] data, Monitor m) throws InterruptedException {
+        get(n).forward(n, data, m);
+    }
+
+    /**
+     * Forward transform of real data, using the backend chosen for the
+     * size, as for FFTBackend.realForward
+     *
+     * @param n number of samples
+     * @param data array of at least n + 2
+     * @param m monitor that can cancel the transform, or null
+     * @throws InterruptedException if the monitor cancelled the transform
+     */
+    public static void realForward(int n, float[] data, Monitor m) throws InterruptedException {
+        int size = (n % 2 == 0 && n >= 4) ? n / 2 : n;
+        get(size).realForward(n, data, m);
+    }
+}
@@ -0,0 +1,237 @@
+package extrackt.dsp;
+
+import extrackt.BudgetedCache;
+import extrackt.JobScheduler;
+import extrackt.Monitor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * FFTBackend for very large transforms, which splits the work across the
+ * shared compute pool (JobScheduler.getComputePool()). Uses the four step
+ * algorithm: n = n1 * n2 points are taken as an n1 x n2 matrix, and
+ * <ol>
+ * <li>the n1 columns are transformed, each an FFT of n2 points,
+ * <li>each element is multiplied by a twiddle factor,
+ * <li>the n2 rows are transformed, each an FFT of n1 points,
+ * <li>and the result is read out transposed.
+ * </ol>
+ * With n1 and n2 near the square root of n, the small transforms fit in
+ * the cache, and they are independent, so they run in parallel. They are
+ * done by FFTService, so each uses the backend chosen for its size.
+ *
+ * Only sizes of at least MIN_SIZE that have a factor near enough their
+ * square root are supported, and only when there is more than one core.
+ * In practice that means the spectrum of a whole selection, which
+ * SpectrumService transforms in one piece: a few seconds of audio is
+ * already past MIN_SIZE.
+ *
+ * @author Crawford Currie
+ */
+public class FourStepFFT extends FFTBackend {
+
+    /** Smallest transform worth splitting */
+    public static final int MIN_SIZE = 1 << 16;
+    // Smallest factor to split by; smaller ones leave the columns too long
+    private static final int MIN_FACTOR = 16;
+
+    // Split of a size, and the twiddle factors. W^m, for W = exp(-2 pi i / n),
+    // is coarse[m / block] * fine[m % block], so the tables are only about
+    // the square root of n long.
+    private static class Plan {
+
+        final int n1, n2, block;
+        final double[] coarse, fine; // [Re, Im]
+
+        Plan(int n) {
+            n1 = split(n);
+            n2 = n / n1;
+            block = (int) Math.ceil(Math.sqrt(n));
+            int nc = (n + block - 1) / block;
+            coarse = new double[2 * nc];
+            for (int a = 0; a < nc; a++) {
+                double theta = -2 * Math.PI * ((double) a * block) / n;
+                coarse[2 * a] = Math.cos(theta);
+                coarse[2 * a + 1] = Math.sin(theta);
+            }
+            fine = new double[2 * block];
+            for (int b = 0; b < block; b++) {
+                double theta = -2 * Math.PI * b / n;
+                fine[2 * b] = Math.cos(theta);
+                fine[2 * b + 1] = Math.sin(theta);
+            }
+        }
+    }
+
+    private static final BudgetedCache<Integer, Plan> plans
+            = new BudgetedCache<Integer, Plan>("Four step FFT plans", 4) {
+                @Override
+                protected long sizeOf(Plan p) {
+                    return 48 + 8L * (p.coarse.length + p.fine.length);
+                }
+            };
+
+    private static Plan getPlan(int n) {
+        Plan p = plans.get(n);
+        if (p == null) {
+            p = new Plan(n);
+            plans.put(n, p);
+        }
+        return p;
+    }
+
+    // Largest factor of n no bigger than its square root, or 0 if that is
+    // less than MIN_FACTOR
+    private static int split(int n) {
+        for (int f = (int) Math.sqrt(n); f >= MIN_FACTOR; f--) {
+            if (n % f == 0) {
+                return f;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public String getName() {
+        return "four-step";
+    }
+
+    // Nothing to gain on a single core
+    @Override
+    public boolean supports(int n) {
+        return n >= MIN_SIZE && split(n) != 0
+                && JobScheduler.getComputePool().getParallelism() > 1;
+    }
+
+    @Override
+    public double getCost(int n) {
+        int n1 = split(n);
+        int n2 = n / n1;
+        double cost = n1 * FFTService.get(n2).getCost(n2)
+                + n2 * FFTService.get(n1).getCost(n1) + 3.0 * n;
+        return cost / JobScheduler.getComputePool().getParallelism();
+    }
+
+    // Work on a range of rows
+    private interface Body {
+
+        // Do rows lo..hi-1
+        void rows(int lo, int hi);
+    }
+
+    // Split a range of rows into tasks of no more than grain rows
+    private static class Rows extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        final Body body;
+        final int lo, hi, grain;
+
+        Rows(Body body, int lo, int hi, int grain) {
+            this.body = body;
+            this.lo = lo;
+            this.hi = hi;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo <= grain) {
+                body.rows(lo, hi);
+            } else {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Rows(body, lo, mid, grain),
+                        new Rows(body, mid, hi, grain));
+            }
+        }
+    }
+
+    // Do rows 0..n-1 in parallel
+    private static void run(int n, Body body) {
+        ForkJoinPool pool = JobScheduler.getComputePool();
+        Rows task = new Rows(body, 0, n, Math.max(1, n / (4 * pool.getParallelism())));
+        if (ForkJoinTask.inForkJoinPool()) {
+            // Already on a worker, e.g. in FFTWatcher, so join in
+            task.invoke();
+        } else {
+            pool.invoke(task);
+        }
+    }
+
+    @Override
+    public void forward(final int n, final float[] data, final Monitor m) throws InterruptedException {
+        final Plan p = getPlan(n);
+        final int n1 = p.n1, n2 = p.n2;
+        final float[] work = new float[2 * n]; // [k2][j1]
+
+        // Transform the columns, x[j1 + n1 j2] for each j1, and twiddle
+        run(n1, new Body() {
+            @Override
+            public void rows(int lo, int hi) {
+                float[] col = new float[2 * n2];
+                for (int j1 = lo; j1 < hi; j1++) {
+                    if (m != null && m.isCancelled()) {
+                        return;
+                    }
+                    for (int j2 = 0; j2 < n2; j2++) {
+                        int i = 2 * (j1 + n1 * j2);
+                        col[2 * j2] = data[i];
+                        col[2 * j2 + 1] = data[i + 1];
+                    }
+                    try {
+                        FFTService.forward(n2, col, m);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    long step = j1;
+                    long e = 0; // j1 * k2 mod n
+                    for (int k2 = 0; k2 < n2; k2++) {
+                        int a = 2 * (int) (e / p.block);
+                        int b = 2 * (int) (e % p.block);
+                        double wr = p.coarse[a] * p.fine[b] - p.coarse[a + 1] * p.fine[b + 1];
+                        double wi = p.coarse[a] * p.fine[b + 1] + p.coarse[a + 1] * p.fine[b];
+                        float xr = col[2 * k2], xi = col[2 * k2 + 1];
+                        int o = 2 * (k2 * n1 + j1);
+                        work[o] = (float) (xr * wr - xi * wi);
+                        work[o + 1] = (float) (xr * wi + xi * wr);
+                        e += step;
+                        if (e >= n) {
+                            e -= n;
+                        }
+                    }
+                }
+            }
+        });
+        if (m != null && m.isCancelled()) {
+            throw new InterruptedException();
+        }
+
+        // Transform the rows, and read out transposed
+        run(n2, new Body() {
+            @Override
+            public void rows(int lo, int hi) {
+                float[] row = new float[2 * n1];
+                for (int k2 = lo; k2 < hi; k2++) {
+                    if (m != null && m.isCancelled()) {
+                        return;
+                    }
+                    System.arraycopy(work, 2 * k2 * n1, row, 0, 2 * n1);
+                    try {
+                        FFTService.forward(n1, row, m);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                    for (int k1 = 0; k1 < n1; k1++) {
+                        int o = 2 * (k2 + n2 * k1);
+                        data[o] = row[2 * k1];
+                        data[o + 1] = row[2 * k1 + 1];
+                    }
+                }
+            }
+        });
+        if (m != null && m.isCancelled()) {
+            throw new InterruptedException();
+        }
+    }
+}
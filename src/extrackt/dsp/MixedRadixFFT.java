@@ -0,0 +1,54 @@
+package extrackt.dsp;
+
+import extrackt.FFT;
+import extrackt.FloatFFT;
+import extrackt.Monitor;
+
+/**
+ * FFTBackend using the GSL derived mixed radix transform, FloatFFT. Works
+ * for any size, fastest when the size has only small factors.
+ *
+ * @author Crawford Currie
+ */
+public class MixedRadixFFT extends FFTBackend {
+
+    @Override
+    public String getName() {
+        return "mixed-radix";
+    }
+
+    @Override
+    public boolean supports(int n) {
+        return n > 0;
+    }
+
+    // Each pass of factor f costs about n(f - 1), so large prime factors
+    // are expensive
+    @Override
+    public double getCost(int n) {
+        double cost = 0;
+        for (int f : FFT.factor(n)) {
+            cost += (double) n * (f - 1);
+        }
+        return cost;
+    }
+
+    @Override
+    public void forward(int n, float[] data, Monitor m) throws InterruptedException {
+        if (data.length == 2 * n) {
+            new FloatFFT(FFT.Plan.get(n), FFT.FORWARD, data, m);
+        } else {
+            // FloatFFT wants the array to be exactly the size of the data
+            float[] d = new float[2 * n];
+            System.arraycopy(data, 0, d, 0, 2 * n);
+            new FloatFFT(FFT.Plan.get(n), FFT.FORWARD, d, m);
+            System.arraycopy(d, 0, data, 0, 2 * n);
+        }
+    }
+
+    @Override
+    public void realForward(int n, float[] data, Monitor m) throws InterruptedException {
+        // Avoids the copy forward() needs for the oversized array
+        FloatFFT.realForward(n, data, m);
+    }
+}
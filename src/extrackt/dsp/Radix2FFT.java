@@ -0,0 +1,64 @@
+package extrackt.dsp;
+
+import extrackt.Monitor;
+
+/**
+ * FFTBackend using the radix 2 transform of dsp.FFT, on interleaved data.
+ * Only for powers of 2.
+ *
+ * @author Crawford Currie
+ */
+public class Radix2FFT extends FFTBackend {
+
+    @Override
+    public String getName() {
+        return "radix-2";
+    }
+
+    @Override
+    public boolean supports(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    @Override
+    public void forward(int n, float[] data, Monitor m) throws InterruptedException {
+        FFT.Plan plan = FFT.Plan.get(n);
+
+        // Bit reversal sorting
+        int[] swaps = plan.swaps;
+        for (int s = 0; s < swaps.length; s += 2) {
+            int i = 2 * swaps[s];
+            int j = 2 * swaps[s + 1];
+            float re = data[j];
+            float im = data[j + 1];
+            data[j] = data[i];
+            data[j + 1] = data[i + 1];
+            data[i] = re;
+            data[i + 1] = im;
+        }
+
+        int half = plan.wr.length;
+        for (int stage = 1; stage <= plan.numStages; stage++) {
+            if (m != null && m.isCancelled()) {
+                throw new InterruptedException();
+            }
+            int LE = 1 << stage;
+            int LE2 = LE >> 1;
+            int step = half / LE2;
+            for (int sub = 0; sub < LE2; sub++) {
+                double UR = plan.wr[sub * step];
+                double UI = plan.wi[sub * step];
+                for (int b = sub; b < n; b += LE) {
+                    int i = 2 * b;
+                    int ip = 2 * (b + LE2);
+                    float tr = (float) (data[ip] * UR - data[ip + 1] * UI);
+                    float ti = (float) (data[ip] * UI + data[ip + 1] * UR);
+                    data[ip] = data[i] - tr;
+                    data[ip + 1] = data[i + 1] - ti;
+                    data[i] += tr;
+                    data[i + 1] += ti;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package extrackt.dsp;
+
+import extrackt.SampleSource;
+import java.io.IOException;
+
+/**
+ * Short-time Fourier transform of a sample stream. The channels are summed,
+ * and the stream is cut into windows of a fixed size, each starting a hop
+ * after the last, so windows overlap when the hop is less than the window
+ * size. Each window is weighted by a window function (such as
+ * WindowFrames.Hann) and transformed, and the magnitude or power of the
+ * non-negative frequencies is given as a frame.
+ *
+ * Frames can be averaged as they are read, so that each frame returned is
+ * the mean of a number of transforms. Averaging the POWER of overlapping
+ * windows is Welch's method of estimating a power spectrum.
+ *
+ * Only one window of samples is held, so the whole of a stream of any
+ * length can be transformed in constant memory. The final window is padded
+ * with zeros if the stream ends part way through it. Values are unscaled,
+ * as they come from the FFT.
+ *
+ * @author Crawford Currie
+ */
+public class STFT implements FrameSource {
+
+    /** Frames give the magnitude of each frequency */
+    public static final int MAGNITUDE = 0;
+    /** Frames give the power (magnitude squared) of each frequency */
+    public static final int POWER = 1;
+
+    private final SampleSource source;
+    private final int windowSize;
+    private final int hop;
+    private final int output;
+    private final float[] weights; // the window function
+    private final float[] window; // samples of the current window
+    private int have; // number of samples in window
+    private final float[][] buffer; // for reading the source
+    private final float[] spectrum; // samples in, [Re, Im] out
+    private final float[] sum; // for averaging
+    private int average;
+    private boolean eof;
+    private long transforms;
+
+    /**
+     * @param src the sample stream
+     * @param windowSize number of samples in each window
+     * @param hop number of samples between the starts of windows
+     * @param f window function, or null for a rectangular window
+     * @param output MAGNITUDE or POWER
+     */
+    public STFT(SampleSource src, int windowSize, int hop, WindowFrames.Function f, int output) {
+        if (windowSize < 1 || hop < 1) {
+            throw new IllegalArgumentException("Window size and hop must be positive");
+        }
+        source = src;
+        this.windowSize = windowSize;
+        this.hop = hop;
+        this.output = output;
+        // Apply the function once, to get a table of weights
+        float[] w = new float[windowSize];
+        for (int i = 0; i < windowSize; i++) {
+            w[i] = 1;
+        }
+        if (f != null) {
+            f.window(w, windowSize);
+        }
+        weights = w;
+        window = new float[windowSize];
+        have = 0;
+        buffer = new float[Math.min(windowSize, hop)][src.getNumChannels()];
+        spectrum = new float[windowSize + 2];
+        sum = new float[getFrameSize()];
+        average = 1;
+        eof = false;
+        transforms = 0;
+    }
+
+    /**
+     * Set how many transforms are averaged to give each frame. Averaging
+     * over the whole stream gives a single frame.
+     *
+     * @param n number of transforms averaged into each frame, or 0 to
+     * average all the transforms in the stream
+     */
+    public void setAverage(int n) {
+        average = n;
+    }
+
+    @Override
+    public int getFrameSize() {
+        return windowSize / 2 + 1;
+    }
+
+    /**
+     * @return number of samples between the starts of windows
+     */
+    public int getHop() {
+        return hop;
+    }
+
+    /**
+     * @return number of transforms done so far
+     */
+    public long getTransforms() {
+        return transforms;
+    }
+
+    /**
+     * Get the frequency of a bin in a frame
+     *
+     * @param bin index into a frame
+     * @return the frequency, in Hz
+     */
+    public float getFrequency(int bin) {
+        return bin * source.getSampleRate() / windowSize;
+    }
+
+    // Read up to n samples, summing the channels, into window at offset.
+    // A null window discards the samples.
+    private int read(float[] into, int offset, int n) throws IOException {
+        int got = 0;
+        int nChannels = source.getNumChannels();
+        while (got < n && !eof) {
+            int want = Math.min(n - got, buffer.length);
+            int read = source.readSamples(buffer, 0, want);
+            if (read < want) {
+                eof = true;
+            }
+            if (into != null) {
+                for (int i = 0; i < read; i++) {
+                    float s = 0;
+                    for (int c = 0; c < nChannels; c++) {
+                        s += buffer[i][c];
+                    }
+                    into[offset + got + i] = s;
+                }
+            }
+            got += Math.max(read, 0);
+        }
+        return got;
+    }
+
+    // Transform the next window, adding it to sum. Returns false at the end
+    // of the stream.
+    private boolean transform() throws IOException {
+        if (transforms > 0) {
+            // Move on by a hop
+            if (hop < windowSize) {
+                System.arraycopy(window, hop, window, 0, windowSize - hop);
+                have = windowSize - hop;
+            } else {
+                have = 0;
+                read(null, 0, hop - windowSize);
+            }
+        }
+        int read = read(window, have, windowSize - have);
+        if (read == 0) {
+            return false;
+        }
+        for (int i = have + read; i < windowSize; i++) {
+            window[i] = 0;
+        }
+        have = windowSize;
+        for (int i = 0; i < windowSize; i++) {
+            spectrum[i] = window[i] * weights[i];
+        }
+        try {
+            FFTService.realForward(windowSize, spectrum, null);
+        } catch (InterruptedException ie) {
+            // Can't happen without a monitor
+        }
+        for (int k = 0; k < sum.length; k++) {
+            double re = spectrum[2 * k];
+            double im = spectrum[2 * k + 1];
+            double p = re * re + im * im;
+            sum[k] += (float) (output == POWER ? p : Math.sqrt(p));
+        }
+        transforms++;
+        return true;
+    }
+
+    /**
+     * Read frames of the transform
+     *
+     * @param frames [numberOfFrames][getFrameSize()] array. The arrays can be
+     * reused for the next read.
+     * @return number of frames read, less than asked for at the end of the
+     * stream
+     * @throws IOException if the source can't be read
+     */
+    @Override
+    public int readFrames(float[][] frames) throws IOException {
+        int read = 0;
+        while (read < frames.length) {
+            int n = 0;
+            while ((average <= 0 || n < average) && transform()) {
+                n++;
+            }
+            if (n == 0) {
+                break;
+            }
+            float[] frame = frames[read++];
+            for (int k = 0; k < sum.length; k++) {
+                frame[k] = sum[k] / n;
+                sum[k] = 0;
+            }
+        }
+        return read;
+    }
+}
@@ -0,0 +1,127 @@
+package extrackt.dsp;
+
+import extrackt.BudgetedCache;
+import extrackt.Monitor;
+
+/**
+ * FFTBackend using the split radix algorithm, which needs fewer operations
+ * than radix 2. Only for powers of 2. A transform of n points is split into
+ * one of the even points (n/2) and two of the odd points (n/4 each), taken
+ * recursively.
+ *
+ * @author Crawford Currie
+ */
+public class SplitRadixFFT extends FFTBackend {
+
+    // Transforms smaller than this are not checked for cancellation
+    private static final int CHECK_SIZE = 1024;
+
+    // exp(-2 pi i j / n) for j < 3n/4, as [Re, Im] pairs
+    private static final BudgetedCache<Integer, float[]> twiddles
+            = new BudgetedCache<Integer, float[]>("Split radix FFT twiddles", 4) {
+                @Override
+                protected long sizeOf(float[] w) {
+                    return 16 + 4L * w.length;
+                }
+            };
+
+    @Override
+    public String getName() {
+        return "split-radix";
+    }
+
+    @Override
+    public boolean supports(int n) {
+        return n > 0 && (n & (n - 1)) == 0;
+    }
+
+    @Override
+    public double getCost(int n) {
+        // About a fifth fewer operations than radix 2
+        return 0.8 * n * log2(n);
+    }
+
+    private static float[] getTwiddles(int n) {
+        float[] w = twiddles.get(n);
+        if (w == null) {
+            int size = 3 * n / 4;
+            w = new float[2 * size];
+            for (int j = 0; j < size; j++) {
+                double theta = -2.0 * Math.PI * j / n;
+                w[2 * j] = (float) Math.cos(theta);
+                w[2 * j + 1] = (float) Math.sin(theta);
+            }
+            twiddles.put(n, w);
+        }
+        return w;
+    }
+
+    @Override
+    public void forward(int n, float[] data, Monitor m) throws InterruptedException {
+        if (n == 1) {
+            return;
+        }
+        float[] in = new float[2 * n];
+        System.arraycopy(data, 0, in, 0, 2 * n);
+        transform(in, 0, 1, data, 0, n, 1, getTwiddles(n), m);
+    }
+
+    /**
+     * Transform n points of in, starting at point ii and is points apart,
+     * into n consecutive points of out starting at point oo. Twiddles for
+     * this size are ts entries apart in w. Positions are in complex points.
+     */
+    private void transform(float[] in, int ii, int is, float[] out, int oo,
+            int n, int ts, float[] w, Monitor m) throws InterruptedException {
+        if (n == 1) {
+            out[2 * oo] = in[2 * ii];
+            out[2 * oo + 1] = in[2 * ii + 1];
+            return;
+        }
+        if (n == 2) {
+            float ar = in[2 * ii], ai = in[2 * ii + 1];
+            float br = in[2 * (ii + is)], bi = in[2 * (ii + is) + 1];
+            out[2 * oo] = ar + br;
+            out[2 * oo + 1] = ai + bi;
+            out[2 * oo + 2] = ar - br;
+            out[2 * oo + 3] = ai - bi;
+            return;
+        }
+        if (n >= CHECK_SIZE && m != null && m.isCancelled()) {
+            throw new InterruptedException();
+        }
+        int h = n / 2;
+        int q = n / 4;
+        // Even points into the first half, odd points into the quarters
+        transform(in, ii, 2 * is, out, oo, h, 2 * ts, w, m);
+        transform(in, ii + is, 4 * is, out, oo + h, q, 4 * ts, w, m);
+        transform(in, ii + 3 * is, 4 * is, out, oo + h + q, q, 4 * ts, w, m);
+
+        for (int k = 0; k < q; k++) {
+            int w1 = 2 * k * ts;
+            int w3 = 3 * w1;
+            int z1 = 2 * (oo + h + k);
+            int z3 = z1 + 2 * q;
+            // W^k Z1[k] and W^3k Z3[k]
+            float ar = w[w1] * out[z1] - w[w1 + 1] * out[z1 + 1];
+            float ai = w[w1] * out[z1 + 1] + w[w1 + 1] * out[z1];
+            float br = w[w3] * out[z3] - w[w3 + 1] * out[z3 + 1];
+            float bi = w[w3] * out[z3 + 1] + w[w3 + 1] * out[z3];
+            float sr = ar + br, si = ai + bi;
+            float dr = ar - br, di = ai - bi;
+            int u0 = 2 * (oo + k);
+            int u1 = u0 + 2 * q;
+            float u0r = out[u0], u0i = out[u0 + 1];
+            float u1r = out[u1], u1i = out[u1 + 1];
+            out[u0] = u0r + sr;
+            out[u0 + 1] = u0i + si;
+            out[z1] = u0r - sr;
+            out[z1 + 1] = u0i - si;
+            // -i * d and +i * d
+            out[u1] = u1r + di;
+            out[u1 + 1] = u1i - dr;
+            out[z3] = u1r - di;
+            out[z3 + 1] = u1i + dr;
+        }
+    }
+}
@@ -71,7 +71,7 @@ public class WindowFrames implements FrameSource {
         @Override
         public float window(float[] frame, int N) {
             for (int n = 0; n < N; n++) {
-                frame[n] *= (0.54 - 0.46 * Math.cos(twoPI * n) / (N - 1));
+                frame[n] *= (0.54 - 0.46 * Math.cos(twoPI * n / (N - 1)));
             }
             return N;
         }
@@ -3,6 +3,7 @@ package extrackt.hushfinder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -10,13 +11,21 @@ import java.io.IOException;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
 
 import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.UnsupportedAudioFileException;
 
 import extrackt.AudioRangeListener;
+import extrackt.Envelope;
+import extrackt.Monitor;
+import extrackt.NoiseFloorWatcher;
 import extrackt.RandomAccessAudioFile;
 import extrackt.PCMDataSource;
+import extrackt.QualityWatcher;
+import extrackt.LevelStatistics;
+import extrackt.ThresholdTuner;
+import extrackt.TrackList;
 import extrackt.SampleSource;
 import extrackt.SamplesFromPCMData;
 import extrackt.SilenceWatcher;
@@ -34,11 +43,25 @@ public class HushFinder {
     private static final float DEFAULT_DUR = 1f; // seconds
 
     private Silences silences;
+    // In ladder mode, silences are kept separately for each level
+    private TreeMap<Integer, Silences> ladder;
 
     private static List<Silences.Threshold> thresholds;
+    private static boolean ladderMode = false;
+    private static boolean useEnvelope = false;
+    private static boolean binary = false;
+    private static boolean qc = false;
+    // Number of tracks to choose a threshold for, 0 to read it from the
+    // .tracks file, or -1 if thresholds are not chosen automatically
+    private static int autoTracks = -1;
+    // Shortest gap between tracks the automatic threshold will look for
+    private static final float AUTO_MIN_DURATION = 0.5f;
+    // Margin above the noise floor, dB, or NaN if not adaptive
+    private static float adaptiveMargin = Float.NaN;
+    private static float adaptiveDuration;
 
     public static final Pattern OPTION_RE = Pattern.compile(
-            "^--?(t(hreshold)?|h(elp)?|o(ut)?)$");
+            "^--?(t(hreshold)?|l(adder)?|ad(aptive)?|e(nvelope)?|b(inary)?|c(onvert)?|q(c)?|au(to)?|h(elp)?|o(ut)?)$");
 
     public HushFinder() {
     }
@@ -50,33 +73,198 @@ public class HushFinder {
         public boolean rangeEvent(float start, float end, Object data) {
             //System.out.println(start + ":" + end);
             int[] d = (int[]) data;
-            silences.addSilence(start, end, d[0], d[1]);
+            Silences s = (ladder != null) ? ladder.get(d[0]) : silences;
+            s.addSilence(start, end, d[0], d[1]);
             return true;
         }
     }
 
-    private void analyse(String file, PrintWriter pw) {
+    class DefectListener implements AudioRangeListener {
+
+        // Called for every fault found by the QualityWatcher
+        @Override
+        public boolean rangeEvent(float start, float end, Object data) {
+            System.err.println("\rQC " + data + " " + start + " " + end);
+            return true;
+        }
+    }
+
+    // Put a QualityWatcher in the chain, if asked for
+    private SampleSource checkQuality(SampleSource pcms, RandomAccessAudioFile audio) {
+        if (!qc) {
+            return pcms;
+        }
+        int bits = audio.getFormat().getSampleSizeInBits();
+        return new QualityWatcher(pcms, new DefectListener(), (1 << (bits - 1)) - 1);
+    }
+
+    // Choose a threshold that splits the audio into the expected number of
+    // tracks, from the statistics of its envelope. The envelope is built
+    // (and saved) if needed, so the silences are then found from it.
+    private void autoThreshold(String file, RandomAccessAudioFile audio, Monitor monitor) {
+        File ef = new File(file + Envelope.EXTENSION);
+        try {
+            int tracks = autoTracks;
+            if (tracks <= 0) {
+                TrackList tl = new TrackList();
+                FileReader fr = new FileReader(file + ".tracks");
+                try {
+                    tl.load(fr, file);
+                } finally {
+                    fr.close();
+                }
+                tracks = tl.size();
+            }
+            Envelope envelope = null;
+            if (ef.exists()) {
+                envelope = Envelope.read(ef);
+                if (!envelope.matches(audio)) {
+                    envelope = null;
+                }
+            }
+            if (envelope == null) {
+                AudioInputStream strm = audio.getSampleInputStream(0, audio.getSampleLength());
+                SampleSource pcms = checkQuality(
+                        new SamplesFromPCMData(new PCMDataSource(strm)), audio);
+                Envelope.Builder builder = new Envelope.Builder(pcms, audio.getSampleLength());
+                builder.setMonitor(monitor, audio.getSampleLength());
+                builder.suckDry();
+                if (monitor.isCancelled()) {
+                    return;
+                }
+                envelope = builder.getEnvelope();
+                envelope.write(ef);
+                System.err.println("\rWrote " + ef);
+                // Already checked
+                qc = false;
+            }
+            List<ThresholdTuner.Candidate> cands = ThresholdTuner.tune(
+                    LevelStatistics.of(envelope), tracks - 1, AUTO_MIN_DURATION, 5);
+            if (cands.isEmpty()) {
+                throw new Error("No threshold found for " + tracks + " tracks");
+            }
+            Iterator<ThresholdTuner.Candidate> ci = cands.iterator();
+            while (ci.hasNext()) {
+                System.err.println("Candidate " + ci.next());
+            }
+            thresholds.add(cands.get(0).threshold);
+            useEnvelope = true;
+        } catch (IOException ioe) {
+            throw new Error(ioe.getMessage());
+        }
+    }
+
+    // Write silences to out in the format opposite to the one in
+    private static void convert(File in, File out) throws IOException {
+        Silences s = new Silences(new ArrayList<Silences.Threshold>());
+        s.load(in);
+        s.setBinary(!s.isBinary());
+        s.write(out);
+        System.err.println("Wrote " + s.size() + " silences to " + out
+                + (s.isBinary() ? " (binary)" : " (text)"));
+    }
+
+    // Output goes to pw, or to binOut in binary format if it is not null
+    private void analyse(String file, PrintWriter pw, File binOut, Monitor monitor) {
         RandomAccessAudioFile audio;
         try {
             audio = new RandomAccessAudioFile(new File(file + ".wav"));
         } catch (UnsupportedAudioFileException | IOException ioe) {
             throw new Error("Problem reading " + file + ".wav: " + ioe.getMessage());
         }
+        if (autoTracks >= 0) {
+            autoThreshold(file, audio, monitor);
+            if (thresholds.isEmpty()) {
+                return;
+            }
+        }
         silences = new Silences(thresholds);
-        AudioInputStream strm = audio.getAudioInputStream(0, audio.getLength());
-        PCMDataSource pcm = new PCMDataSource(strm);
-        SampleSource pcms = new SamplesFromPCMData(pcm);
+        if (ladderMode) {
+            ladder = new TreeMap<>();
+            Iterator<Silences.Threshold> tit = thresholds.iterator();
+            while (tit.hasNext()) {
+                Silences.Threshold t = tit.next();
+                List<Silences.Threshold> one = new ArrayList<>();
+                one.add(t);
+                ladder.put(t.level, new Silences(one));
+            }
+        }
+        File ef = new File(file + Envelope.EXTENSION);
+        Envelope envelope = null;
+        if (useEnvelope && !qc && ef.exists()) {
+            try {
+                envelope = Envelope.read(ef);
+                if (!envelope.matches(audio)) {
+                    System.err.println(ef + " does not match the audio, rebuilding");
+                    envelope = null;
+                }
+            } catch (IOException ioe) {
+                System.err.println("Problem reading " + ef + ": " + ioe.getMessage());
+            }
+            Iterator<Silences.Threshold> tit = thresholds.iterator();
+            while (envelope != null && tit.hasNext()) {
+                Silences.Threshold t = tit.next();
+                if (!envelope.canFind(t)) {
+                    System.err.println("Duration too short to use " + ef + " for " + t);
+                    envelope = null;
+                }
+            }
+        }
 
-        SilenceWatcher custodian = new SilenceWatcher(pcms, new SilenceListener(), thresholds);
         try {
-            custodian.suckDry();
+            if (!Float.isNaN(adaptiveMargin)) {
+                AudioInputStream strm = audio.getSampleInputStream(0, audio.getSampleLength());
+                SampleSource pcms = checkQuality(
+                        new SamplesFromPCMData(new PCMDataSource(strm)), audio);
+                NoiseFloorWatcher custodian = new NoiseFloorWatcher(pcms,
+                        new SilenceListener(), adaptiveMargin, adaptiveDuration);
+                custodian.setMonitor(monitor, audio.getSampleLength());
+                custodian.suckDry();
+                System.err.println("\nNoise floor at end " + custodian.getNoiseFloor());
+            } else if (envelope != null) {
+                // Only the edges of each silence need the audio
+                envelope.findSilences(thresholds, new SilenceListener(), audio, monitor);
+            } else {
+                AudioInputStream strm = audio.getSampleInputStream(0, audio.getSampleLength());
+                PCMDataSource pcm = new PCMDataSource(strm);
+                SampleSource pcms = checkQuality(new SamplesFromPCMData(pcm), audio);
+                Envelope.Builder builder = null;
+                if (useEnvelope) {
+                    // Build the envelope in the same pass, for next time
+                    builder = new Envelope.Builder(pcms, audio.getSampleLength());
+                    pcms = builder;
+                }
+                SilenceWatcher custodian = new SilenceWatcher(pcms, new SilenceListener(), thresholds);
+                custodian.setMonitor(monitor, audio.getSampleLength());
+                custodian.suckDry();
+                if (builder != null && !monitor.isCancelled()) {
+                    builder.getEnvelope().write(ef);
+                    System.err.println("Wrote " + ef);
+                }
+            }
         } catch (IOException ioe) {
             throw new Error(ioe.getMessage());
         }
+        if (monitor.isCancelled()) {
+            System.err.println("Interrupted; silences found so far follow");
+        }
 
         try {
-            silences.write(new PrintWriter(System.err));
-            silences.write(pw);
+            if (ladder != null) {
+                // One section per level, lowest first
+                Iterator<Integer> li = ladder.keySet().iterator();
+                while (li.hasNext()) {
+                    Integer level = li.next();
+                    pw.println("# level " + level);
+                    ladder.get(level).write(pw);
+                }
+            } else if (binOut != null) {
+                silences.setBinary(true);
+                silences.write(binOut);
+            } else {
+                silences.write(new PrintWriter(System.err));
+                silences.write(pw);
+            }
         } catch (IOException ioe) {
             throw new Error(ioe.getMessage());
         }
@@ -86,10 +274,45 @@ public class HushFinder {
             + "Options:\n"
             + "--out <file> - output silences to <file> (default is stdout)\n"
             + "--threshold <level> <duration> - add a threshold, level and minimum duration\n"
+            + "--ladder <low> <high> <steps> <duration> - add <steps> thresholds with\n"
+            + "  levels spaced geometrically from <low> to <high>, all found in one pass,\n"
+            + "  and output the silences for each level separately\n"
+            + "--adaptive <margin> <duration> - instead of fixed thresholds, find\n"
+            + "  silences no more than <margin> dB above the noise floor, which is\n"
+            + "  tracked as the recording goes on\n"
+            + "--envelope - find silences from the <wavfile>.envelope file, creating\n"
+            + "  it if needed. Much faster when trying different thresholds\n"
+            + "--binary - write the --out file in the binary format, which Extrackt\n"
+            + "  loads much faster than text\n"
+            + "--convert <in> <out> - convert a silences file from text to binary, or\n"
+            + "  binary to text, and exit\n"
+            + "--auto <tracks> - choose a threshold that splits the audio into\n"
+            + "  <tracks> tracks, or as many as there are in <wavfile>.tracks if <tracks>\n"
+            + "  is 0. The <wavfile>.envelope file is used, and created if needed\n"
+            + "--qc - also report clipping, dropouts (runs of exact zeros) and\n"
+            + "  repeated blocks of samples on stderr, in the same pass. The\n"
+            + "  envelope is not used to find silences when this is given\n"
             + "--help - print this information\n"
             + "If no --threshold options are given, a default threshold of level "
             + DEFAULT_LEVEL + " and duration " + DEFAULT_DUR + "s will be used\n";
 
+    // Add thresholds with levels spaced geometrically from low to high.
+    // Levels that round to the same integer are only added once.
+    private static void addLadder(int low, int high, int steps, float dur) {
+        if (low < 1 || high < low || steps < 1) {
+            throw new IllegalArgumentException("Bad ladder");
+        }
+        double ratio = (steps > 1) ? Math.pow((double) high / low, 1.0 / (steps - 1)) : 1;
+        int last = -1;
+        for (int i = 0; i < steps; i++) {
+            int level = (int) Math.round(low * Math.pow(ratio, i));
+            if (level != last) {
+                thresholds.add(new Silences.Threshold(level, dur));
+                last = level;
+            }
+        }
+    }
+
     /**
      * @param args the command line arguments
      */
@@ -106,7 +329,9 @@ public class HushFinder {
             //System.err.println("OPTION '"+args[argi]+"'");
             Matcher match = OPTION_RE.matcher(args[argi]);
             if (match.find()) {
-                switch (match.group(1).charAt(0)) {
+                // --adaptive and --auto share a first letter
+                String opt = match.group(1);
+                switch (opt.startsWith("au") ? 'u' : opt.charAt(0)) {
                     case 't':
                         // threshold
                         try {
@@ -120,6 +345,64 @@ public class HushFinder {
 
                         }
                         break;
+                    case 'l':
+                        // ladder of thresholds
+                        try {
+                            int low = Integer.parseInt(args[++argi]);
+                            int high = Integer.parseInt(args[++argi]);
+                            int steps = Integer.parseInt(args[++argi]);
+                            float dur = Float.parseFloat(args[++argi]);
+                            addLadder(low, high, steps, dur);
+                            ladderMode = true;
+                        } catch (Exception e) {
+                            System.err.println("Bad ladder " + args[argi] + "\n" + usage);
+                            System.exit(1);
+                        }
+                        break;
+                    case 'a':
+                        // adaptive threshold
+                        try {
+                            adaptiveMargin = Float.parseFloat(args[++argi]);
+                            adaptiveDuration = Float.parseFloat(args[++argi]);
+                        } catch (Exception e) {
+                            System.err.println("Bad adaptive " + args[argi] + "\n" + usage);
+                            System.exit(1);
+                        }
+                        break;
+                    case 'u':
+                        // automatic threshold
+                        try {
+                            autoTracks = Integer.parseInt(args[++argi]);
+                        } catch (Exception e) {
+                            System.err.println("Bad auto " + args[argi] + "\n" + usage);
+                            System.exit(1);
+                        }
+                        break;
+                    case 'q':
+                        // quality control
+                        qc = true;
+                        break;
+                    case 'e':
+                        // use envelope sidecar
+                        useEnvelope = true;
+                        break;
+                    case 'b':
+                        // binary output
+                        binary = true;
+                        break;
+                    case 'c':
+                        // convert between formats
+                        try {
+                            convert(new File(args[argi + 1]), new File(args[argi + 2]));
+                        } catch (ArrayIndexOutOfBoundsException aie) {
+                            System.err.println("Bad convert\n" + usage);
+                            System.exit(1);
+                        } catch (IOException ioe) {
+                            System.err.println(ioe.getMessage());
+                            System.exit(1);
+                        }
+                        System.exit(0);
+                        break;
                     case 'o':
                         // Output file name (default output to STDOUT)
                         of = args[++argi];
@@ -147,7 +430,21 @@ public class HushFinder {
             System.err.println(usage);
             System.exit(1);
         }
-        if (thresholds.isEmpty()) {
+        if (binary && (of == null || ladderMode)) {
+            System.err.println("--binary needs --out, and can't be used with --ladder");
+            System.exit(1);
+        }
+        if (!Float.isNaN(adaptiveMargin)) {
+            if (!thresholds.isEmpty() || useEnvelope) {
+                System.err.println("--adaptive can't be used with thresholds or --envelope");
+                System.exit(1);
+            }
+        } else if (autoTracks >= 0) {
+            if (!thresholds.isEmpty()) {
+                System.err.println("--auto can't be used with thresholds");
+                System.exit(1);
+            }
+        } else if (thresholds.isEmpty()) {
             System.err.println("Using default threshold");
             thresholds.add(new Silences.Threshold(DEFAULT_LEVEL, DEFAULT_DUR));
         }
@@ -156,8 +453,25 @@ public class HushFinder {
             System.err.println(tit.next());
         }
         HushFinder hf = new HushFinder();
-        PrintWriter pw;
-        if (of == null) {
+
+        // Report progress as a percentage on stderr
+        final Monitor.Token monitor = new Monitor.Token() {
+            private int percent = -1;
+
+            @Override
+            public void progress(long done, long total) {
+                super.progress(done, total);
+                int p = (int) (getProgress() * 100);
+                if (p != percent) {
+                    percent = p;
+                    System.err.print("\r" + p + "%");
+                }
+            }
+        };
+        PrintWriter pw = null;
+        if (binary) {
+            System.err.println("Generating binary output in " + of);
+        } else if (of == null) {
             pw = new PrintWriter(System.out);
         } else {
             try {
@@ -168,9 +482,36 @@ public class HushFinder {
                 throw new Error(fnf.getMessage());
             }
         }
-        hf.analyse(f, pw);
-        //pw.flush();
-        pw.close();
+        // An interrupt (^C) stops the scan, and waits for the silences found
+        // so far to be written before the JVM exits. The hook is only there
+        // while the scan runs, so a System.exit() on this thread can never
+        // end up waiting for itself.
+        final Thread worker = Thread.currentThread();
+        Thread hook = new Thread() {
+            @Override
+            public void run() {
+                monitor.cancel();
+                try {
+                    worker.join();
+                } catch (InterruptedException ie) {
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            hf.analyse(f, pw, binary ? new File(of) : null, monitor);
+            System.err.println();
+            //pw.flush();
+            if (pw != null) {
+                pw.close();
+            }
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ise) {
+                // Already shutting down; the hook is waiting for us
+            }
+        }
         System.err.println("Silences generated");
     }
 }
@@ -1,6 +1,6 @@
 package extrackt.speech;
 
-import extrackt.dsp.FFT;
+import extrackt.dsp.FFTService;
 
 /**
  * Representation of Mel Frequency Cepstral Coefficients
@@ -60,11 +60,19 @@ public class MFCC {
      * Calculate (real) FFT for a frame
      */
     private double[] magnitudeSpectrum() {
-        double[] m = new double[framedSignal.length];
-        float[][] result = FFT.fft(framedSignal);
+        // Only the non-negative frequencies are used
+        int n = framedSignal.length;
+        float[] result = new float[n + 2];
+        System.arraycopy(framedSignal, 0, result, 0, n);
+        try {
+            FFTService.realForward(n, result, null);
+        } catch (InterruptedException ie) {
+            // Can't happen without a monitor
+        }
+        double[] m = new double[n / 2 + 1];
         // calculate magnitude spectrum
-        for (int k = 0; k < framedSignal.length; k++) {
-            m[k] = Math.sqrt(result[FFT.REAL][k] * result[FFT.REAL][k] + result[FFT.IMAG][k] * result[FFT.IMAG][k]);
+        for (int k = 0; k < m.length; k++) {
+            m[k] = Math.sqrt(result[2 * k] * result[2 * k] + result[2 * k + 1] * result[2 * k + 1]);
         }
         return m;
     }
@@ -0,0 +1,116 @@
+package extrackt.ui;
+
+import extrackt.AudioRangeListener;
+
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * An AudioRangeListener that can be called from any thread, and that hands
+ * the events on to the UI thread in batches. Events are buffered, and
+ * delivered no more often than once per period, so a scan that finds
+ * thousands of ranges isn't slowed down by per-event UI work.
+ *
+ * @author Crawford Currie
+ */
+public class BatchedRangeListener implements AudioRangeListener {
+
+    /**
+     * A range event, as passed to rangeEvent()
+     */
+    public static class Range {
+
+        public final float start, end;
+        public final Object data;
+
+        Range(float s, float e, Object d) {
+            start = s;
+            end = e;
+            data = d;
+        }
+    }
+
+    /**
+     * Receiver for batches of events. Called on the UI thread.
+     */
+    public interface Receiver {
+
+        /**
+         * @param batch the events received since the last batch, in the
+         * order they were received
+         */
+        public void rangeEvents(List<Range> batch);
+    }
+
+    private final Receiver receiver;
+    private final int period;
+    private ArrayList<Range> pending;
+    private boolean scheduled; // a delivery is pending
+    private long lastDelivery; // System.currentTimeMillis()
+    private final Timer timer;
+    private final Runnable deliver = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<Range> batch;
+            synchronized (BatchedRangeListener.this) {
+                batch = pending;
+                pending = new ArrayList<>();
+                scheduled = false;
+                lastDelivery = System.currentTimeMillis();
+            }
+            if (batch.size() > 0) {
+                receiver.rangeEvents(batch);
+            }
+        }
+    };
+
+    /**
+     * @param r receiver for the batches
+     * @param ms minimum time between batches, in milliseconds
+     */
+    public BatchedRangeListener(Receiver r, int ms) {
+        receiver = r;
+        period = ms;
+        pending = new ArrayList<>();
+        scheduled = false;
+        lastDelivery = 0;
+        timer = new Timer(ms, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                deliver.run();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    // Implement AudioRangeListener
+    @Override
+    public synchronized boolean rangeEvent(float start, float end, Object data) {
+        pending.add(new Range(start, end, data));
+        if (!scheduled) {
+            scheduled = true;
+            long wait = lastDelivery + period - System.currentTimeMillis();
+            if (wait <= 0) {
+                SwingUtilities.invokeLater(deliver);
+            } else {
+                timer.setInitialDelay((int) wait);
+                timer.restart();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Deliver anything still buffered as soon as possible. Call when the
+     * source of events has finished.
+     */
+    public synchronized void flush() {
+        timer.stop();
+        scheduled = true;
+        SwingUtilities.invokeLater(deliver);
+    }
+}
@@ -2,7 +2,7 @@ package extrackt.ui;
 
 import java.util.Iterator;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Properties;
 
 import java.io.IOException;
@@ -25,10 +25,15 @@ import javax.swing.text.Document;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 import java.awt.Toolkit;
 
 import extrackt.AudioRangeListener;
+import extrackt.Envelope;
+import extrackt.JobScheduler;
+import extrackt.Silences;
+import extrackt.MemoryBudget;
 import extrackt.RandomAccessAudioFile;
 import extrackt.Player;
 import extrackt.Silence;
@@ -39,7 +44,6 @@ import extrackt.PCMDataWatcher;
 import extrackt.PCMDataSource;
 import extrackt.Sink;
 import extrackt.Track;
-import extrackt.FFTWatcher;
 import extrackt.SampleSource;
 import extrackt.NormalisationFilter;
 
@@ -58,6 +62,8 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     static final String MIN_SILENCE = "MinSilence";
     static final String SILENCE_THRESHOLD = "SilenceThreshold";
     static final String RECENT_FILE = "RecentFile";
+    // Milliseconds the mark must rest before its spectrum is computed
+    static final int SPECTRUM_DELAY = 40;
 
     private String fileRoot; // File name root
     private String fileRootDir; // Directory root
@@ -65,14 +71,15 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     private TrackListUI trackList;
     private SilencesUI silences;
 
-    private class SilenceFoundListener implements AudioRangeListener {
+    private class SilenceFoundListener implements BatchedRangeListener.Receiver {
 
-        // Implement AudioRangeListener
+        // Implement BatchedRangeListener.Receiver
         @Override
-        public boolean rangeEvent(float start, float end, Object data) {
-            int[] d = (int[]) data;
-            silences.addSilence(start, end, d[0], d[1]);
-            return true;
+        public void rangeEvents(List<BatchedRangeListener.Range> batch) {
+            silences.addSilences(batch);
+            waveformDisplay.repaint();
+            trackListOverview.repaint();
+            trackListWindow.repaint();
         }
     };
 
@@ -84,24 +91,24 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     private final TrackListDisplay[] trackDisplays;
     private TrackListWindow trackListWindow;
     private TrackListDisplay trackListOverview;
-    private FFTWatcher fftSource;
+    private SpectrogramDisplay spectrogramDisplay; // created when first shown
+    private JFrame spectrogramFrame;
+    private SpectrumService spectrumService; // spectra for the powerDisplay
+    private JobScheduler.Job preScanJob; // scan for silences over the file
+    private int scannedTo; // samples; all silences before this are known
+    // Thresholds added since the file was opened. Their silences are found
+    // over the whole file from the envelope, or by addedScanJob if the
+    // envelope can't answer (those still to do are in unscanned), so the
+    // pre-scan leaves them out.
+    private final ArrayList<Silences.Threshold> added = new ArrayList<>();
+    private final ArrayList<Silences.Threshold> unscanned = new ArrayList<>();
+    private JobScheduler.Job addedScanJob; // scan for the unscanned thresholds
+    private int addedTo = -1; // samples; as scannedTo, or -1 if done
+    private float scanFrom = -1; // mark "Scan for next" is waiting on, or -1
+    private Envelope envelope; // amplitude envelope of the audio, if known
+    private JobScheduler.Job envelopeJob; // building the envelope
     private final ArrayList<TrackFieldListener> trackFieldListeners = new ArrayList<>();
-    private LinkedList<Runnable> threadQueue = new LinkedList<Runnable>();
-    Thread threadQueueRunner = new Thread() {
-        @Override
-        public void run() {
-            while (true) {
-                Runnable r = threadQueue.pollFirst();
-                if (r != null) {
-                    r.run();
-                }
-                try {
-                    sleep(200);
-                } catch (InterruptedException ie) {
-                }
-            }
-        }
-    };
+    private final JobScheduler scheduler = new JobScheduler();
 
     private final Properties properties;
     private final JLabel[] zoomLabels = new JLabel[5];
@@ -118,6 +125,7 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
      */
     public MainFrame() {
         initComponents();
+        spectrumService = new SpectrumService(scheduler, powerDisplay, SPECTRUM_DELAY);
         setIconImage(Toolkit.getDefaultToolkit().createImage(ClassLoader.getSystemResource("extrackt/resources/rewind.png")));
         setTitle("Extrackt");
         trackDisplays = new TrackListDisplay[2];
@@ -150,12 +158,21 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
             });
             i++;
         }
+        javax.swing.JMenu viewMenu = new javax.swing.JMenu("View");
+        javax.swing.JMenuItem spectrogram = new javax.swing.JMenuItem("Spectrogram");
+        spectrogram.addActionListener(new java.awt.event.ActionListener() {
+            @Override
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                showSpectrogram();
+            }
+        });
+        viewMenu.add(spectrogram);
+        topMenu.add(viewMenu);
         trackList = null;
         player = new Player();
         sink = new Sink();
         importProperty(TRACK_WINDOW_WIDTH, zoomWidthTextField.getDocument());
         importProperty(CLIP_LENGTH, clipLengthTextField.getDocument());
-        threadQueueRunner.start();
     }
 
     private void importProperty(String name, Document doc) {
@@ -242,16 +259,162 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         }
     }
 
-    /**
-     * * Find the next silence. Scan samples starting at the current mark, and
-     * stop when we encounter a silence (as defined by the thresholds currently
-     * set). Set the mark to the start of the silence found. The list of
-     * silences is *not* modified.
-     *
-     * @param stopWhenFound
-     */
-    private void scanForSilence() {
+    // Scan the audio for silences from a sample to the end of the file,
+    // adding them to the silences as they are found. Replaces any scan
+    // already running. The scan reports how far it has settled (every
+    // silence before that point is known) in scannedTo, so "Scan for next"
+    // never has to read that part of the audio again.
+    private void preScan(final int from, int priority) {
+        if (preScanJob != null) {
+            preScanJob.cancel();
+            preScanJob = null;
+        }
+        scannedTo = from;
+        List<Silences.Threshold> ts = new ArrayList<>(silences.getThresholds());
+        ts.removeAll(added);
+        if (ts.isEmpty() || from >= audio.getSampleLength()) {
+            // Nothing to look for
+            scannedTo = audio.getSampleLength();
+            return;
+        }
+        if (priority == JobScheduler.INTERACTIVE) {
+            // Someone is waiting, so show them the audio as it is scanned
+            waveformDisplay.reset(from / audio.getFormat().getSampleRate(),
+                    audio.getFormat().getSampleRate());
+        }
+        preScanJob = scan(from, ts, priority);
+    }
+
+    // Scan the whole file for the unscanned thresholds, replacing any such
+    // scan already running
+    private void scanAdded() {
+        if (addedScanJob != null) {
+            addedScanJob.cancel();
+            addedScanJob = null;
+        }
+        addedTo = -1;
+        if (!unscanned.isEmpty()) {
+            addedTo = 0;
+            addedScanJob = scan(0, new ArrayList<>(unscanned), JobScheduler.BACKGROUND);
+        }
+    }
+
+    // Silences before this sample are known for every threshold
+    private int knownTo() {
+        return addedTo < 0 ? scannedTo : Math.min(scannedTo, addedTo);
+    }
+
+    // Start a job that scans from a sample to the end of the file for
+    // silences at some thresholds. It reports its progress to scannedTo or
+    // addedTo, depending on whether it is the preScanJob or addedScanJob.
+    private JobScheduler.Job scan(final int from, final List<Silences.Threshold> ts, final int priority) {
+        final RandomAccessAudioFile a = audio;
+        final float rate = a.getFormat().getSampleRate();
+        final SilenceFoundListener receiver = new SilenceFoundListener();
+        return scheduler.submit(new JobScheduler.Job("Pre-scan for silence", priority) {
+            // Silences found since the last post
+            private final ArrayList<BatchedRangeListener.Range> found = new ArrayList<>();
+            private SilenceWatcher ear;
+
+            @Override
+            protected void execute() throws IOException {
+                SampleSource pcms = new SamplesFromPCMData(new PCMDataSource(
+                        a.getSampleInputStream(from, a.getSampleLength() - from)));
+                ear = new SilenceWatcher(pcms, new AudioRangeListener() {
+                    @Override
+                    public boolean rangeEvent(float start, float end, Object data) {
+                        found.add(new BatchedRangeListener.Range(
+                                from / rate + start, from / rate + end, data));
+                        return true;
+                    }
+                }, ts);
+                SampleWatcher sw = new SampleWatcher(ear);
+                if (priority == JobScheduler.INTERACTIVE) {
+                    sw.addWatcher(waveformDisplay);
+                }
+                sw.setMonitor(this, a.getSampleLength() - from);
+                sw.suckDry();
+            }
+
+            // Called by suckDry() after each buffer
+            @Override
+            public void progress(long done, long total) {
+                super.progress(done, total);
+                post(false);
+            }
 
+            @Override
+            protected void done(Exception failure) {
+                if (failure != null) {
+                    System.out.println(failure);
+                } else if (ear != null) {
+                    post(!isCancelled());
+                }
+            }
+
+            // Hand what has been found to the UI thread; last if the scan
+            // has reached the end of the file
+            private void post(final boolean last) {
+                final ArrayList<BatchedRangeListener.Range> batch = new ArrayList<>(found);
+                found.clear();
+                final int settled = from + (int) ear.getSettled();
+                final JobScheduler.Job job = this;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (audio != a) {
+                            return;
+                        }
+                        if (preScanJob == job) {
+                            if (batch.size() > 0) {
+                                // Found just by opening the file, so nothing
+                                // has been changed
+                                boolean modified = silences.getModified();
+                                receiver.rangeEvents(batch);
+                                silences.setModified(modified);
+                            }
+                            scannedTo = settled;
+                            answerScan();
+                        } else if (addedScanJob == job) {
+                            if (batch.size() > 0) {
+                                receiver.rangeEvents(batch);
+                            }
+                            addedTo = settled;
+                            if (last) {
+                                // Known everywhere now
+                                unscanned.clear();
+                                addedTo = -1;
+                                addedScanJob = null;
+                            }
+                            answerScan();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // If a "Scan for next" is waiting, and the scan has got far enough to
+    // answer it, move the mark to the silence found
+    private void answerScan() {
+        if (scanFrom < 0) {
+            return;
+        }
+        int known = knownTo();
+        float scanned = known / audio.getFormat().getSampleRate();
+        Silence s = silences.nextAfter(scanFrom);
+        if (s != null && s.getStart() < scanned) {
+            trackList.setCurrentMark(s.getStart());
+        } else if (known < audio.getSampleLength()) {
+            // Not there yet
+            return;
+        }
+        scanFrom = -1;
+        enableControls(true);
+        if (preScanJob != null && preScanJob.getPriority() != JobScheduler.BACKGROUND) {
+            // Nobody is waiting any more
+            preScan(scannedTo, JobScheduler.BACKGROUND);
+        }
     }
 
     private void confirmDataLoss(Runnable action) {
@@ -314,6 +477,95 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         }
     }
 
+    // Load the amplitude envelope of the audio from its sidecar file, or
+    // build it (and the sidecar) in the background if there isn't one
+    private void loadEnvelope() {
+        envelope = null;
+        if (envelopeJob != null) {
+            envelopeJob.cancel();
+            envelopeJob = null;
+        }
+        final File ef = new File(fileRootPath + Envelope.EXTENSION);
+        if (ef.exists()) {
+            try {
+                Envelope e = Envelope.read(ef);
+                if (e.matches(audio)) {
+                    envelope = e;
+                    return;
+                }
+            } catch (IOException ioe) {
+                System.out.println("Problem reading " + ef + ": " + ioe.getMessage());
+            }
+        }
+        final RandomAccessAudioFile a = audio;
+        envelopeJob = scheduler.submit(new JobScheduler.Job("Envelope " + ef, JobScheduler.BACKGROUND) {
+            @Override
+            protected void execute() throws IOException {
+                SampleSource pcms = new SamplesFromPCMData(new PCMDataSource(
+                        a.getSampleInputStream(0, a.getSampleLength())));
+                Envelope.Builder b = new Envelope.Builder(pcms, a.getSampleLength());
+                b.setMonitor(this, a.getSampleLength());
+                b.suckDry();
+                if (isCancelled()) {
+                    return;
+                }
+                final Envelope e = b.getEnvelope();
+                e.write(ef);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (audio == a) {
+                            envelope = e;
+                        }
+                    }
+                });
+            }
+
+            @Override
+            protected void done(Exception failure) {
+                if (failure != null) {
+                    System.out.println(failure);
+                }
+            }
+        });
+    }
+
+    // Find the silences for a threshold from the envelope, if we have one.
+    // Much faster than scanning the audio.
+    private void findSilences(final Silences.Threshold t) {
+        final Envelope e = envelope;
+        if (e == null || !e.canFind(t)) {
+            return;
+        }
+        final RandomAccessAudioFile a = audio;
+        scheduler.submit(new JobScheduler.Job("Silences for " + t, JobScheduler.INTERACTIVE) {
+            @Override
+            protected void execute() throws IOException {
+                BatchedRangeListener found = new BatchedRangeListener(
+                        new SilenceFoundListener(), 250);
+                List<Silences.Threshold> ts = new ArrayList<>();
+                ts.add(t);
+                e.findSilences(ts, found, a, this);
+                found.flush();
+            }
+        });
+    }
+
+    // Open the spectrogram window, creating it the first time
+    private void showSpectrogram() {
+        if (spectrogramFrame == null) {
+            spectrogramDisplay = new SpectrogramDisplay(scheduler);
+            spectrogramFrame = new JFrame("Spectrogram");
+            spectrogramFrame.add(spectrogramDisplay);
+            spectrogramFrame.setSize(800, 300);
+            if (trackList != null) {
+                spectrogramDisplay.setAudio(audio, trackList);
+                trackList.addListener(spectrogramDisplay);
+            }
+        }
+        spectrogramFrame.setVisible(true);
+    }
+
     private void alert(String mess) {
         alertText.setText(mess);
         alertDialog.pack();
@@ -366,13 +618,19 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         file = new File(fileRootPath + ".silences");
         if (file.exists()) {
             try {
-                FileReader reader = new FileReader(file);
-                silences.load(reader);
+                silences.load(file);
             } catch (IOException ioe) {
                 alert(ioe.getMessage());
             }
         }
 
+        loadEnvelope();
+        scanFrom = -1;
+        added.clear();
+        unscanned.clear();
+        scanAdded();
+        preScan(0, JobScheduler.BACKGROUND);
+
         trackListOverview.setTrackList(trackList);
         trackListOverview.addPainter(trackList);
         trackListOverview.addPainter(silences);
@@ -388,6 +646,11 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         trackList.addListener(trackListOverview);
         trackList.addListener(trackListWindow);
         trackList.addListener(waveformDisplay);
+        spectrumService.setAudio(audio);
+        if (spectrogramDisplay != null) {
+            spectrogramDisplay.setAudio(audio, trackList);
+            trackList.addListener(spectrogramDisplay);
+        }
 
         ArrayList<String> rfl;
         rfl = new ArrayList<>();
@@ -485,15 +748,19 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
             @Override
             public void run() {
                 SampleSource pcms = new SamplesFromPCMData(source);
+                // Silences are added to the UI in batches, on the EDT
+                BatchedRangeListener found = new BatchedRangeListener(
+                        new SilenceFoundListener(), 250);
                 SilenceWatcher sw = new SilenceWatcher(
                         new SamplesFromPCMData(source),
-                        new SilenceFoundListener(),
+                        found,
                         silences.getThresholds());
                 try {
                     pcms.reset();
                     sw.suckDry();
                 } catch (IOException ioe) {
                 }
+                found.flush();
                 waveformDisplay.repaint();
             }
         };
@@ -619,35 +886,9 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     // Perform an FFT on a selected region
     // start and span are in seconds
     private void FFT(float start, float span) {
-        if (fftSource != null) {
-            // We only run one FFTWatcher at a time, otherwise results of later
-            // FFTs overwrite the pointless earlier ones
-            fftSource.interrupt();
-            fftSource = null;
-        }
-        if (span < 0) {
-            start += span;
-            span = -span;
-        }
-        AudioInputStream pcmd = audio.getAudioInputStream(start, span);
-        SamplesFromPCMData pcms = new SamplesFromPCMData(new PCMDataSource(pcmd));
-        final SampleWatcher sw = new SampleWatcher(pcms);
-        powerDisplay.reset(pcms.getSampleRate());
-        final int fftSamples = (int) (span * pcms.getSampleRate());
-        final FFTWatcher fftw = new FFTWatcher(fftSamples, (int) pcms.getSampleRate());
-        sw.addWatcher(fftw);
-        new Thread() {
-            @Override
-            public void run() {
-                try {
-                    sw.suckDry();
-                    // Wait for the FFTs to complete, then tell the powerDisplay
-                    // This will compute the HPS
-                    fftw.wait(powerDisplay);
-                } catch (IOException ie) {
-                }
-            }
-        }.start();
+        // Only the latest request is computed, and spectra already seen
+        // are shown at once
+        spectrumService.request(start, span);
     }
 
     @Override
@@ -693,21 +934,29 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     private void writeAudio(final Track tr) {
         if (!tr.isDeleted()) {
             tr.setModified(Track.WRITING);
-            threadQueue.add(new Runnable() {
+            final File f = new File(fileRootDir + tr.getName() + ".wav");
+            scheduler.submit(new JobScheduler.Job("Write " + f, JobScheduler.EXPORT) {
                 @Override
-                public void run() {
+                protected void execute() throws IOException {
+                    System.out.println("Writing " + f);
+                    FileOutputStream out = new FileOutputStream(f);
                     try {
-                        File f = new File(fileRootDir + tr.getName() + ".wav");
-                        System.out.println("Writing " + f);
-                        try {
-                            Thread.sleep(50);
-                        } catch (InterruptedException ie) {
-                        }
-                        tr.writeAudio(audio, new FileOutputStream(f));
-                        System.out.println("Wrote " + f);
-                        tr.clearModified(Track.AUDIO | Track.WRITING);
-                    } catch (IOException ioe) {
-                        System.out.println(ioe);
+                        tr.writeAudio(audio, out, this);
+                    } finally {
+                        out.close();
+                    }
+                    tr.clearModified(Track.AUDIO | Track.WRITING);
+                }
+
+                @Override
+                protected void done(Exception failure) {
+                    if (failure != null || isCancelled()) {
+                        System.out.println(failure != null ? failure : "Cancelled " + this);
+                        // Don't leave a partial file lying around
+                        f.delete();
+                        tr.clearModified(Track.WRITING);
+                    } else {
+                        System.out.println("Wrote " + this);
                     }
                     repaint();
                 }
@@ -2146,6 +2395,12 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     private void interruptButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_interruptButtonActionPerformed
         player.stopPlaying();
         sink.stopPlaying();
+        scheduler.cancelAll(JobScheduler.EXPORT);
+        if (scanFrom >= 0) {
+            // Stop waiting, but let the scan carry on in the background
+            scanFrom = -1;
+            preScan(scannedTo, JobScheduler.BACKGROUND);
+        }
         enableControls(true);
     }//GEN-LAST:event_interruptButtonActionPerformed
 
@@ -2217,26 +2472,14 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     }//GEN-LAST:event_fadeInButtonActionPerformed
 
     private void scanForSilenceActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_scanForSilenceActionPerformed
-        float cur_mark = trackList.getCurrentMark();
-        float dur = audio.getLength() - cur_mark;
-        AudioInputStream pcmd = audio.getAudioInputStream(cur_mark, dur);
-        SamplesFromPCMData pcms = new SamplesFromPCMData(new PCMDataSource(pcmd));
-        SilenceWatcher ear = new SilenceWatcher(
-                pcms, new SilenceListener(trackList), silences.getThresholds());
-        waveformDisplay.reset(cur_mark, ear.getSampleRate());
-        final SampleWatcher s = new SampleWatcher(ear);
-        s.addWatcher(waveformDisplay);
-        enableControls(false);
-        new Thread() {
-            @Override
-            public void run() {
-                try {
-                    s.suckDry();
-                } catch (IOException ioe) {
-                }
-                enableControls(true);
-            }
-        }.start();
+        // Answered from what the pre-scan has found if it has got far
+        // enough, otherwise wait for it, hurrying it along
+        scanFrom = trackList.getCurrentMark();
+        answerScan();
+        if (scanFrom >= 0) {
+            enableControls(false);
+            preScan(scannedTo, JobScheduler.INTERACTIVE);
+        }
     }//GEN-LAST:event_scanForSilenceActionPerformed
 
     private void playAfterButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_playAfterButtonActionPerformed
@@ -2269,18 +2512,9 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
     }//GEN-LAST:event_playBeforeButtonActionPerformed
     
     private void jumpToNextSilenceActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jumpToNextSilenceActionPerformed
-        float cur_mark = trackList.getCurrentMark();
-        float best = -1;
-        Iterator<Silence> si = silences.iterator();
-        while (si.hasNext()) {
-            Silence s = si.next();
-            if (s.getStart() > cur_mark) {
-                if (best < 0 || s.getStart() < best)
-                    best = s.getStart();
-            }
-        }
-        if (best >= 0) {
-            trackList.setCurrentMark(best);
+        Silence s = silences.nextAfter(trackList.getCurrentMark());
+        if (s != null) {
+            trackList.setCurrentMark(s.getStart());
             playAfterButtonActionPerformed(null);
         }
 }//GEN-LAST:event_jumpToNextSilenceActionPerformed
@@ -2317,9 +2551,8 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         }
         if (saveSilencesCheckBox.isSelected()) {
             try {
-                out = new PrintWriter(
-                        new FileWriter(new File(fileRootPath + ".silences")));
-                silences.write(out);
+                // Kept in the format it was loaded in
+                silences.write(new File(fileRootPath + ".silences"));
             } catch (IOException ioe) {
                 alert(ioe.getMessage());
             }
@@ -2349,9 +2582,15 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
                 }
             }
         }
-        threadQueue.add(new Runnable() {
+        scheduler.whenIdle(JobScheduler.EXPORT, new Runnable() {
+            @Override
             public void run() {
-                enableControls(true);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        enableControls(true);
+                    }
+                });
             }
         });
         saveDialog.setVisible(false);
@@ -2401,14 +2640,18 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         if (track != null) {
             AudioInputStream s = audio.getAudioInputStream(track.getStart(), track.getEnd() - track.getStart());
             NormalisationFilter nf = new NormalisationFilter(s);
-            byte[] buffer = new byte[Sink.EXTERNAL_BUFFER_SIZE];
+            MemoryBudget budget = MemoryBudget.get();
+            int size = (int) budget.grant(Sink.EXTERNAL_BUFFER_SIZE, 65536);
+            byte[] buffer = new byte[size];
             try {
-                while (nf.read(buffer, 0, Sink.EXTERNAL_BUFFER_SIZE) == Sink.EXTERNAL_BUFFER_SIZE) {
+                while (nf.read(buffer, 0, size) == size) {
                 }
                 track.setPeakLevel(nf.getPeak());
                 trackChanged();
             } catch (IOException ioe) {
                 alert("IO Exception: " + ioe.getMessage());
+            } finally {
+                budget.giveBack(size);
             }
         }
     }//GEN-LAST:event_computePeakLevelButtonActionPerformed
@@ -2434,26 +2677,34 @@ public class MainFrame extends JFrame implements TrackListUI.ChangeListener {
         Integer l = Integer.parseInt(thresholdLevelTextField.getText());
         Float d = Float.parseFloat(thresholdDurationTextField.getText());
         silences.addThreshold(l, d);
+        List<Silences.Threshold> ts = silences.getThresholds();
+        Silences.Threshold t = ts.get(ts.size() - 1);
+        added.add(t);
+        if (envelope != null && envelope.canFind(t)) {
+            findSilences(t);
+        } else {
+            // Nothing is known about the new threshold yet, so scan the
+            // whole file for it, and only it
+            unscanned.add(t);
+            scanAdded();
+        }
     }//GEN-LAST:event_thresholdAddButtonActionPerformed
 
     private void thresholdRemoveButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_thresholdRemoveButtonActionPerformed
         Integer l = Integer.parseInt(thresholdLevelTextField.getText());
         silences.deleteThreshold(l);
+        // What has been scanned is still good for the remaining thresholds
+        added.retainAll(silences.getThresholds());
+        if (unscanned.retainAll(silences.getThresholds())) {
+            scanAdded();
+        }
+        preScan(scannedTo, JobScheduler.BACKGROUND);
     }//GEN-LAST:event_thresholdRemoveButtonActionPerformed
 
     private void jumpToLastSilenceActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_jumpToLastSilenceActionPerformed
-        float cur_mark = trackList.getCurrentMark();
-        float best = -1;
-        Iterator<Silence> si = silences.iterator();
-        while (si.hasNext()) {
-            Silence s = si.next();
-            if (s.getEnd() < cur_mark) {
-                if (best < 0 || s.getEnd() > best)
-                    best = s.getEnd();
-            }
-        }
-        if (best >= 0) {
-            trackList.setCurrentMark(best);
+        Silence s = silences.lastBefore(trackList.getCurrentMark());
+        if (s != null) {
+            trackList.setCurrentMark(s.getEnd());
             playAfterButtonActionPerformed(null);
         }
     }//GEN-LAST:event_jumpToLastSilenceActionPerformed
@@ -18,6 +18,14 @@ public interface Painter {
          */
         public int l2p_x(float s);
 
+        /**
+         * Transform a display X (pixels) to a logical X (usually seconds)
+         *
+         * @param x display X to transform
+         * @return logical X
+         */
+        public float p2l_x(int x);
+
         /**
          * Get the display size (pixels)
          *
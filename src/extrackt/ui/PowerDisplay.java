@@ -24,7 +24,7 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
     private JLabel startLabel, endLabel, minLabel, maxLabel, formantLabel;
     private float[] data;
     private float maxp;
-    private float sampleRate;
+    private float range; // frequency at the right hand edge, Hz
     private float fundamentalFrequency;
 
     /**
@@ -32,7 +32,7 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
      */
     public PowerDisplay() {
         maxp = 120;
-        sampleRate = 44100;
+        range = 22050;
     }
 
     public void setLabels(JLabel start, JLabel end, JLabel min, JLabel max, JLabel fmnt) {
@@ -45,10 +45,11 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
     }
 
     /**
-     * @param sr sampleRate
+     * @param r frequency range of the data to come, in Hz; the data covers
+     * frequencies from 0 up to (but not including) r
      */
-    public void reset(float sr) {
-        this.sampleRate = sr;
+    public void reset(float r) {
+        this.range = r;
     }
 
     private void relabel() {
@@ -56,7 +57,7 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
             startLabel.setText("0");
         }
         if (endLabel != null) {
-            endLabel.setText(Float.toString(sampleRate));
+            endLabel.setText(Float.toString(range));
         }
         if (minLabel != null) {
             minLabel.setText("0");
@@ -78,7 +79,7 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
         for (int i = 0; i < data.length; i++) {
             data[i] = fft[i][0];
         }
-        WindowFrames.Function hps = new WindowFrames.HarmonicProductSpectrum(sampleRate);
+        WindowFrames.Function hps = new WindowFrames.HarmonicProductSpectrum(range);
         fundamentalFrequency = hps.window(data, data.length);
         formantLabel.setText(Float.toString(fundamentalFrequency));
         repaint();
@@ -88,7 +89,7 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
         Dimension size = getSize();
         if (data != null) {
             int j = evt.getX() * data.length / size.width;
-            float hz = j * sampleRate / data.length;
+            float hz = j * range / data.length;
             setToolTipText(Float.toString(hz) + "Hz " + data[j]);
         }
     }
@@ -105,7 +106,7 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
             int w = size.width;
             WindowFrames.Function norm = new WindowFrames.Normalise();
             maxp = norm.window(data, data.length);
-            // Each bucket is sample_freq/Nsamples wide
+            // Each bucket is range/data.length wide
             g.setColor(Colors.POWER_SPECTRUM);
             for (int j = 0; j < data.length; j++) {
                 int x = (int) (j * w / data.length);
@@ -114,13 +115,13 @@ public class PowerDisplay extends JPanel implements SampleWatcher.Watcher {
                 g.drawLine(x, h, x, h - y);
             }
             g.setColor(Colors.POWER_GRID);
-            for (int i = 5000; i < sampleRate; i += 5000) {
-                int x = (int) (i * w / sampleRate);
+            for (int i = 5000; i < range; i += 5000) {
+                int x = (int) (i * w / range);
                 g.drawLine(x, 0, x, (int) maxp);
             }
 
             g.setColor(Colors.CURRENT_MARK);
-            int x = (int) (fundamentalFrequency * w / sampleRate);
+            int x = (int) (fundamentalFrequency * w / range);
             g.drawLine(x, 0, x, h);
         }
     }
@@ -16,6 +16,7 @@ import java.awt.Color;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.ListIterator;
 
 /**
@@ -97,6 +98,21 @@ public class SilencesUI extends Silences implements Painter, ListModel<Silences.
         }
     }
 
+    /**
+     * Add a batch of silences found by a SilenceWatcher. Must be called on
+     * the UI thread, as the silences are painted from there.
+     *
+     * @param batch ranges, each with data {threshold, max level}
+     */
+    public void addSilences(List<BatchedRangeListener.Range> batch) {
+        Iterator<BatchedRangeListener.Range> i = batch.iterator();
+        while (i.hasNext()) {
+            BatchedRangeListener.Range r = i.next();
+            int[] d = (int[]) r.data;
+            addSilence(r.start, r.end, d[0], d[1]);
+        }
+    }
+
     private void paintSilences(Painter.Transformer tx, Graphics g) {
         Dimension size = tx.getSize();
         int maxt = 0;
@@ -108,14 +124,16 @@ public class SilencesUI extends Silences implements Painter, ListModel<Silences.
                 maxt = lim;
         }
         float h = size.height * 0.25f;
-        ListIterator<Silence> i = listIterator();
+        // Only the silences that can be seen
+        Iterator<Silence> i = range(tx.p2l_x(0), tx.p2l_x(size.width)).iterator();
         while (i.hasNext()) {
             Silence s = i.next();
             int ts = s.getLevel();
-            float ratio = ((float)ts) / maxt;
+            float ratio = Math.min(1, ((float)ts) / maxt);
             Color c = lcm.get(ts);
             if (c == null) {
-                lcm.put(ts, new Color(ratio, 0, 0));
+                c = new Color(ratio, 0, 0);
+                lcm.put(ts, c);
             }
             g.setColor(c);
             int l = tx.l2p_x(s.getStart());
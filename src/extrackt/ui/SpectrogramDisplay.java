@@ -0,0 +1,372 @@
+package extrackt.ui;
+
+import extrackt.BudgetedCache;
+import extrackt.JobScheduler;
+import extrackt.PCMDataSource;
+import extrackt.RandomAccessAudioFile;
+import extrackt.SampleSource;
+import extrackt.SamplesFromPCMData;
+import extrackt.dsp.STFT;
+import extrackt.dsp.WindowFrames;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+/**
+ * A SpectrogramDisplay shows the frequencies in the audio around the current
+ * mark, time across and frequency up, with the power of each frequency as a
+ * colour. Like the TrackListWindow, the display is centred on the mark and
+ * moves with it. Clicking moves the mark, the wheel scrolls, and the wheel
+ * with control held zooms.
+ *
+ * The spectrogram is cut into tiles of TILE_WIDTH columns. Tiles are computed
+ * by jobs on the scheduler, off the EDT, and kept in an LRU cache keyed by
+ * zoom level and tile number, so scrolling back over audio already seen
+ * costs nothing. Each tile is computed in two passes: first every COARSE'th
+ * column, shown stretched, and then all of them, so something appears
+ * quickly even when zoomed a long way out. The first pass reads just one
+ * window of audio for each column it computes. Jobs for tiles that scroll
+ * out of view before they are finished are cancelled.
+ *
+ * @author Crawford Currie
+ */
+public class SpectrogramDisplay extends JPanel implements TrackListUI.ChangeListener {
+
+    private static final long serialVersionUID = 1L;
+    private static final int TILE_WIDTH = 256; // columns
+    private static final int WINDOW = 512; // FFT window, samples
+    private static final int BINS = WINDOW / 2; // rows; Nyquist is dropped
+    private static final int COARSE = 8; // columns per column of first pass
+    // Zoom is log2 of the number of samples per column
+    private static final int MIN_ZOOM = 4;
+    private static final int MAX_ZOOM = 16;
+    private static final float RANGE = 90; // dB from full scale to black
+    private static final int[] PALETTE = new int[256];
+
+    static {
+        // black, blue, magenta, red, yellow, white
+        float[][] stops = {{0, 0, 0}, {0, 0, 1}, {1, 0, 1}, {1, 0, 0},
+        {1, 1, 0}, {1, 1, 1}};
+        for (int i = 0; i < PALETTE.length; i++) {
+            float f = (float) i / (PALETTE.length - 1) * (stops.length - 1);
+            int s = Math.min((int) f, stops.length - 2);
+            float t = f - s;
+            float[] a = stops[s], b = stops[s + 1];
+            PALETTE[i] = new Color(a[0] + t * (b[0] - a[0]),
+                    a[1] + t * (b[1] - a[1]), a[2] + t * (b[2] - a[2])).getRGB();
+        }
+    }
+
+    // A tile image, immutable once cached
+    private static class Tile {
+
+        final BufferedImage image;
+        final boolean complete;
+
+        Tile(BufferedImage i, boolean c) {
+            image = i;
+            complete = c;
+        }
+    }
+
+    private final BudgetedCache<Long, Tile> tiles
+            = new BudgetedCache<Long, Tile>("Spectrogram tiles", 2) {
+                @Override
+                protected long sizeOf(Tile t) {
+                    return 64 + 4L * TILE_WIDTH * BINS;
+                }
+            };
+    private final JobScheduler scheduler;
+    private final HashMap<Long, JobScheduler.Job> pending; // EDT only
+    private RandomAccessAudioFile audio;
+    private TrackListUI trackList;
+    private int zoom;
+    private float reference; // dB of a full scale sine
+
+    /**
+     * @param s scheduler to run the tile jobs on
+     */
+    public SpectrogramDisplay(JobScheduler s) {
+        scheduler = s;
+        pending = new HashMap<>();
+        zoom = 8;
+        setBackground(Colors.BACKGROUND);
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent evt) {
+                if (trackList != null) {
+                    trackList.setCurrentMark(x2s(evt.getX()));
+                }
+            }
+
+            @Override
+            public void mouseMoved(MouseEvent evt) {
+                if (audio != null) {
+                    int row = (getSize().height - evt.getY()) * BINS / Math.max(1, getSize().height);
+                    float hz = row * audio.getFormat().getSampleRate() / WINDOW;
+                    setToolTipText(x2s(evt.getX()) + "s " + (int) hz + "Hz");
+                }
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent evt) {
+                if (trackList == null) {
+                    return;
+                }
+                if (evt.isControlDown()) {
+                    setZoom(zoom + evt.getWheelRotation());
+                } else {
+                    int w = getSize().width;
+                    trackList.setCurrentMark(x2s(w / 2 + evt.getWheelRotation() * w / 8));
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    /**
+     * Show a new audio file. Tiles of the last file are forgotten.
+     *
+     * @param a the audio
+     * @param tl the track list, for the mark
+     */
+    public void setAudio(RandomAccessAudioFile a, TrackListUI tl) {
+        cancelAll();
+        tiles.clear();
+        audio = a;
+        trackList = tl;
+        int bits = a.getFormat().getSampleSizeInBits();
+        // A Hann window halves the peak of a sine
+        float fullScale = (1 << (bits - 1)) * a.getFormat().getChannels() * WINDOW / 4f;
+        reference = (float) (20 * Math.log10(fullScale));
+        repaint();
+    }
+
+    /**
+     * @param z log2 of the number of samples per column
+     */
+    public void setZoom(int z) {
+        zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, z));
+        repaint();
+    }
+
+    private static long key(int zoom, long tile) {
+        return ((long) zoom << 48) | tile;
+    }
+
+    // Column of the mark, which is in the middle of the display
+    private long markColumn() {
+        long sample = (long) (trackList.getCurrentMark() * audio.getFormat().getSampleRate());
+        return sample >> zoom;
+    }
+
+    private float x2s(int x) {
+        long col = markColumn() - getSize().width / 2 + x;
+        return (col << zoom) / audio.getFormat().getSampleRate();
+    }
+
+    private void cancelAll() {
+        for (JobScheduler.Job job : pending.values()) {
+            job.cancel();
+        }
+        pending.clear();
+    }
+
+    @Override
+    public void paintComponent(Graphics g) {
+        Dimension size = getSize();
+        g.setColor(Colors.BACKGROUND);
+        g.fillRect(0, 0, size.width, size.height);
+        if (audio == null || trackList == null) {
+            return;
+        }
+        long left = markColumn() - size.width / 2;
+        long right = left + size.width - 1;
+        long first = Math.max(0, left) / TILE_WIDTH;
+        long last = right < 0 ? -1 : right / TILE_WIDTH;
+        long columns = ((long) audio.getSampleLength() >> zoom) + 1;
+        last = Math.min(last, (columns - 1) / TILE_WIDTH);
+
+        HashSet<Long> visible = new HashSet<>();
+        for (long t = first; t <= last; t++) {
+            long k = key(zoom, t);
+            visible.add(k);
+            Tile tile = tiles.get(k);
+            if (tile == null || !tile.complete) {
+                request(t);
+            }
+            if (tile != null) {
+                int x = (int) (t * TILE_WIDTH - left);
+                g.drawImage(tile.image, x, 0, x + TILE_WIDTH, size.height,
+                        0, 0, TILE_WIDTH, BINS, null);
+            }
+        }
+        // Forget tiles that have gone out of view
+        Iterator<Map.Entry<Long, JobScheduler.Job>> i = pending.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Long, JobScheduler.Job> e = i.next();
+            if (!visible.contains(e.getKey())) {
+                e.getValue().cancel();
+                i.remove();
+            }
+        }
+
+        g.setColor(Colors.CURRENT_MARK);
+        g.drawLine(size.width / 2, 0, size.width / 2, size.height);
+    }
+
+    // Start a job to compute a tile, unless one is already running
+    private void request(final long t) {
+        final long k = key(zoom, t);
+        if (pending.containsKey(k)) {
+            return;
+        }
+        final RandomAccessAudioFile a = audio;
+        final int z = zoom;
+        final float ref = reference;
+        JobScheduler.Job job = new JobScheduler.Job("Spectrogram " + t, JobScheduler.INTERACTIVE) {
+            @Override
+            protected void execute() throws IOException {
+                Tile tile = tiles.get(k);
+                if (tile == null) {
+                    tile = new Tile(compute(a, z, t, COARSE, ref, this), false);
+                    if (isCancelled()) {
+                        return;
+                    }
+                    tiles.put(k, tile);
+                    repaint();
+                }
+                tile = new Tile(compute(a, z, t, 1, ref, this), true);
+                if (!isCancelled()) {
+                    tiles.put(k, tile);
+                    repaint();
+                }
+            }
+
+            @Override
+            protected void done(Exception failure) {
+                if (failure != null) {
+                    System.out.println(failure);
+                }
+                final JobScheduler.Job job = this;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (pending.get(k) == job) {
+                            pending.remove(k);
+                        }
+                    }
+                });
+            }
+        };
+        pending.put(k, job);
+        scheduler.submit(job);
+    }
+
+    /**
+     * Compute the image of a tile
+     *
+     * @param a the audio
+     * @param zoom log2 of samples per column
+     * @param t tile number
+     * @param step compute every step'th column, and repeat it to fill the
+     * columns between
+     * @param ref dB of full scale
+     * @param job job to check for cancellation
+     * @return the image
+     */
+    private static BufferedImage compute(RandomAccessAudioFile a, int zoom, long t,
+            int step, float ref, JobScheduler.Job job) throws IOException {
+        int spc = 1 << zoom;
+        long start = t * TILE_WIDTH * spc;
+        int[] pixels = new int[TILE_WIDTH * BINS];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = PALETTE[0];
+        }
+        float[][] frames = new float[16][WINDOW / 2 + 1];
+
+        if (step > 1) {
+            // Read a window for each column computed, and nothing between,
+            // so the first pass is quick however far out the zoom is
+            for (int col = 0; col < TILE_WIDTH && !job.isCancelled(); col += step) {
+                long s = start + (long) col * spc;
+                if (s >= a.getSampleLength()) {
+                    break;
+                }
+                STFT stft = new STFT(new SamplesFromPCMData(new PCMDataSource(
+                        a.getSampleInputStream((int) s, WINDOW))),
+                        WINDOW, WINDOW, new WindowFrames.Hann(), STFT.POWER);
+                if (stft.readFrames(frames) > 0) {
+                    paint(pixels, frames[0], col, step, ref);
+                }
+            }
+        } else {
+            int length = (int) Math.min(TILE_WIDTH * (long) spc + WINDOW, Integer.MAX_VALUE);
+            SampleSource src = new SamplesFromPCMData(new PCMDataSource(
+                    a.getSampleInputStream((int) start, length)));
+            // Long columns are averaged over windows that cover them
+            int hop = spc;
+            int average = 1;
+            if (spc > WINDOW) {
+                hop = WINDOW;
+                average = spc / WINDOW;
+            }
+            STFT stft = new STFT(src, WINDOW, hop, new WindowFrames.Hann(), STFT.POWER);
+            stft.setAverage(average);
+            int col = 0;
+            while (col < TILE_WIDTH && !job.isCancelled()) {
+                int read = stft.readFrames(frames);
+                for (int f = 0; f < read && col < TILE_WIDTH; f++, col++) {
+                    paint(pixels, frames[f], col, 1, ref);
+                }
+                if (read < frames.length) {
+                    break;
+                }
+            }
+        }
+        BufferedImage image = new BufferedImage(TILE_WIDTH, BINS, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, TILE_WIDTH, BINS, pixels, 0, TILE_WIDTH);
+        return image;
+    }
+
+    // Colour the columns from col to col + width with the power in a frame
+    private static void paint(int[] pixels, float[] frame, int col, int width, float ref) {
+        for (int bin = 0; bin < BINS; bin++) {
+            float db = (float) (10 * Math.log10(frame[bin] + 1e-10));
+            int c = (int) ((db - ref + RANGE) * (PALETTE.length - 1) / RANGE);
+            int rgb = PALETTE[Math.max(0, Math.min(PALETTE.length - 1, c))];
+            int row = BINS - 1 - bin;
+            for (int x = col; x < col + width && x < TILE_WIDTH; x++) {
+                pixels[row * TILE_WIDTH + x] = rgb;
+            }
+        }
+    }
+
+    @Override
+    public void markChanged(float oldMark, float oldSpan) {
+        repaint();
+    }
+
+    @Override
+    public void spanChanged(float oldSpan) {
+        repaint();
+    }
+
+    @Override
+    public void trackChanged(int o, int n) {
+        // not interested
+    }
+}
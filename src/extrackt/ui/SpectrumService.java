@@ -0,0 +1,226 @@
+package extrackt.ui;
+
+import extrackt.BudgetedCache;
+import extrackt.FFTWatcher;
+import extrackt.JobScheduler;
+import extrackt.PCMDataSource;
+import extrackt.RandomAccessAudioFile;
+import extrackt.SampleWatcher;
+import extrackt.SamplesFromPCMData;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.IOException;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Computes the spectrum of a range of the audio for a PowerDisplay. Requests
+ * come from the UI thread, usually many a second while the mark is dragged,
+ * so they are debounced: a request is only started once no other has come
+ * for a short delay. Only the latest request matters, so a new one cancels
+ * the one in progress, which stops at the next block of samples or window of
+ * the FFT.
+ *
+ * The whole range is transformed at once, so the resolution of the spectrum
+ * grows with the length of the range. Only frequencies up to TOP are
+ * computed. Results are kept in an LRU cache keyed
+ * by the range of samples, so going back to a range already seen repaints
+ * the display at once, without a job.
+ *
+ * @author Crawford Currie
+ */
+public class SpectrumService {
+
+    // Highest frequency shown, Hz. There's not a lot of energy in the voice
+    // above this.
+    private static final float TOP = 10000;
+
+    // A range of samples
+    private static class Key {
+
+        final int start, length;
+
+        Key(int s, int l) {
+            start = s;
+            length = l;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return start == k.start && length == k.length;
+        }
+
+        @Override
+        public int hashCode() {
+            return start * 31 + length;
+        }
+    }
+
+    private final BudgetedCache<Key, float[]> spectra
+            = new BudgetedCache<Key, float[]>("Spectra", 1) {
+                @Override
+                protected long sizeOf(float[] s) {
+                    return 64 + 4L * s.length;
+                }
+            };
+    private final JobScheduler scheduler;
+    private final PowerDisplay display;
+    private final Timer timer;
+    private RandomAccessAudioFile audio; // EDT only
+    private Key next; // request waiting for the timer, EDT only
+    private JobScheduler.Job job; // latest job started, EDT only
+
+    /**
+     * @param s scheduler to run the FFTs on
+     * @param d display to send spectra to
+     * @param delay milliseconds without a request before one is started
+     */
+    public SpectrumService(JobScheduler s, PowerDisplay d, int delay) {
+        scheduler = s;
+        display = d;
+        timer = new Timer(delay, new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                start();
+            }
+        });
+        timer.setRepeats(false);
+    }
+
+    /**
+     * Use a new audio file. Spectra of the last file are forgotten.
+     *
+     * @param a the audio
+     */
+    public void setAudio(RandomAccessAudioFile a) {
+        cancel();
+        spectra.clear();
+        audio = a;
+    }
+
+    /**
+     * Show the spectrum of a range of the audio, from the cache if it's
+     * there, or else by starting a job once requests stop coming. Call on
+     * the UI thread.
+     *
+     * @param start start of the range, seconds
+     * @param span length of the range, seconds; negative if the range is
+     * before start
+     */
+    public void request(float start, float span) {
+        if (audio == null) {
+            return;
+        }
+        if (span < 0) {
+            start += span;
+            span = -span;
+        }
+        float rate = audio.getFormat().getSampleRate();
+        int first = (int) (start * rate);
+        int length = (int) (span * rate);
+        // Clip to the audio, as the stream will be
+        if (first < 0) {
+            length += first;
+            first = 0;
+        }
+        length = Math.max(0, Math.min(length, audio.getSampleLength() - first));
+        Key k = new Key(first, length);
+
+        cancel();
+        float[] s = spectra.get(k);
+        if (s != null) {
+            show(k, s);
+        } else if (length > 0) {
+            next = k;
+            timer.restart();
+        }
+    }
+
+    /**
+     * Forget any request not yet finished
+     */
+    public void cancel() {
+        timer.stop();
+        next = null;
+        if (job != null) {
+            job.cancel();
+            job = null;
+        }
+    }
+
+    // Number of bins of an n point transform below TOP, or 0 for all of
+    // them
+    private int clip(int n) {
+        int bins = (int) Math.ceil(TOP * n / audio.getFormat().getSampleRate());
+        return bins < n / 2 ? bins : 0;
+    }
+
+    // Send the spectrum of a range to the display
+    private void show(Key k, float[] s) {
+        float[][] samples = new float[s.length][1];
+        for (int i = 0; i < s.length; i++) {
+            samples[i][0] = s[i];
+        }
+        // Bin i is at i * sampleRate / length Hz
+        display.reset(s.length * audio.getFormat().getSampleRate() / k.length);
+        display.addSamples(samples);
+    }
+
+    // Start a job for the waiting request
+    private void start() {
+        if (next == null) {
+            return;
+        }
+        final Key k = next;
+        next = null;
+        final RandomAccessAudioFile a = audio;
+        final int clip = clip(k.length);
+        job = scheduler.submit(new JobScheduler.Job("Spectrum", JobScheduler.INTERACTIVE) {
+            @Override
+            protected void execute() throws IOException {
+                SamplesFromPCMData pcms = new SamplesFromPCMData(new PCMDataSource(
+                        a.getSampleInputStream(k.start, k.length)));
+                SampleWatcher sw = new SampleWatcher(pcms);
+                FFTWatcher fftw = new FFTWatcher(k.length, clip);
+                fftw.setMonitor(this);
+                sw.addWatcher(fftw);
+                sw.setMonitor(this, k.length);
+                sw.suckDry();
+                if (isCancelled()) {
+                    return;
+                }
+                // Wait for the FFTs to complete
+                final float[][] result = new float[1][];
+                fftw.wait(new SampleWatcher.Watcher() {
+                    @Override
+                    public void addSamples(float[][] samples) {
+                        float[] s = new float[samples.length];
+                        for (int i = 0; i < s.length; i++) {
+                            s[i] = samples[i][0];
+                        }
+                        result[0] = s;
+                    }
+                });
+                if (result[0] == null) {
+                    return;
+                }
+                spectra.put(k, result[0]);
+                final JobScheduler.Job self = this;
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        // Only the latest request is shown
+                        if (job == self && audio == a) {
+                            job = null;
+                            show(k, result[0]);
+                        }
+                    }
+                });
+            }
+        });
+    }
+}
@@ -63,6 +63,7 @@ public class TrackListDisplay extends JPanel implements TrackListUI.ChangeListen
         return debug;
     }
     
+    @Override
     public float p2l_x(int x) {
         if (tracklist == null) {
             return 0;
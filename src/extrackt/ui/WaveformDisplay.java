@@ -143,9 +143,11 @@ public class WaveformDisplay extends JPanel implements TrackListUI.ChangeListene
     }
 
     /**
-     * Convert an x-ordinate to a time in seconds
+     * Convert an x-ordinate to a time in seconds - implements
+     * Painter.Transformer
      */
-    private float p2l_s(int x) {
+    @Override
+    public float p2l_x(int x) {
         return sample2s(bucket2sample(x2bucket(x)));
     }
 
@@ -340,7 +342,7 @@ public class WaveformDisplay extends JPanel implements TrackListUI.ChangeListene
 
     public void onMouseEvent(MouseEvent evt) {
         if (trackList != null) {
-            float newMark = p2l_s(evt.getX());
+            float newMark = p2l_x(evt.getX());
             trackList.setCurrentMark(newMark);
             repaint();
         }
@@ -348,13 +350,13 @@ public class WaveformDisplay extends JPanel implements TrackListUI.ChangeListene
 
     public void onMouseMoved(MouseEvent evt) {
         Dimension size = getSize();
-        float pos = p2l_s(evt.getX());
+        float pos = p2l_x(evt.getX());
         setToolTipText(Float.toString(pos));
     }
 
     public void onMouseDragged(MouseEvent evt) {
         if (trackList != null) {
-            float newSpanEnd = p2l_s(evt.getX());
+            float newSpanEnd = p2l_x(evt.getX());
             float newSpan = newSpanEnd - trackList.getCurrentMark();
             trackList.setCurrentSpan(newSpan);
             repaint();